@@ -0,0 +1,107 @@
+package ru.iu3.backend.benchmarks;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.iu3.backend.BackendApplication;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Сервер на встроенной H2 (профиль test) с каталогом заданного размера.
+ * Каталог генерируется с постоянным зерном, поэтому данные во всех запусках одинаковые.
+ */
+class Catalog implements AutoCloseable {
+
+    // Токен пользователя, от имени которого идут запросы к /api
+    static final String TOKEN = "benchmark-token";
+
+    static final int COUNTRIES = 200;
+    static final int MUSEUMS = 500;
+    static final int USERS = 1000;
+
+    final ConfigurableApplicationContext context;
+
+    final int artists;
+
+    final int paintings;
+
+    private Catalog(ConfigurableApplicationContext context, int artists, int paintings) {
+        this.context = context;
+        this.artists = artists;
+        this.paintings = paintings;
+    }
+
+    /**
+     * @param paintings - число картин; художников в двадцать раз меньше
+     * @param properties - настройки сервера вида "ключ=значение" сверх профиля test
+     */
+    static Catalog start(int paintings, String... properties) {
+        List<String> args = new ArrayList<>(List.of("--server.port=0",
+                "--spring.main.banner-mode=off",
+                "--logging.level.root=warn",
+                "--spring.jpa.properties.hibernate.generate_statistics=false"));
+        // аргументами командной строки, а не properties(): те ниже по приоритету, чем application.properties
+        for (String p : properties)
+            args.add("--" + p);
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(BackendApplication.class)
+                .profiles("test")
+                .run(args.toArray(new String[0]));
+        Catalog catalog = new Catalog(context, Math.max(1, paintings / 20), paintings);
+        catalog.fill(context.getBean(JdbcTemplate.class));
+        return catalog;
+    }
+
+    int port() {
+        return ((ServletWebServerApplicationContext) context).getWebServer().getPort();
+    }
+
+    <T> T bean(Class<T> type) {
+        return context.getBean(type);
+    }
+
+    private void fill(JdbcTemplate jdbc) {
+        Random random = new Random(42);
+        insert(jdbc, "INSERT INTO countries (name) VALUES (?)", COUNTRIES,
+                i -> new Object[] { String.format("Country %04d", i) });
+        insert(jdbc, "INSERT INTO museums (name, location) VALUES (?, ?)", MUSEUMS,
+                i -> new Object[] { String.format("Museum %05d", i), "City " + random.nextInt(100) });
+        insert(jdbc, "INSERT INTO artists (name, age, country) VALUES (?, ?, ?)", artists,
+                i -> new Object[] { String.format("Artist %06d", i),
+                        String.valueOf(20 + random.nextInt(70)), 1 + random.nextInt(COUNTRIES) });
+        insert(jdbc, "INSERT INTO paintings (name, artistid, museumid, year) VALUES (?, ?, ?, ?)", paintings,
+                i -> new Object[] { String.format("Painting %07d", i),
+                        1 + random.nextInt(artists), 1 + random.nextInt(MUSEUMS), 1400 + random.nextInt(620) });
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        insert(jdbc, "INSERT INTO users (login, email, password, salt, token, activity) VALUES (?, ?, ?, ?, ?, ?)", USERS,
+                i -> new Object[] { String.format("user%04d", i), String.format("user%04d@example.com", i),
+                        "", "", i == 0 ? TOKEN : null, now });
+    }
+
+    private interface Row {
+        Object[] values(int i);
+    }
+
+    private static void insert(JdbcTemplate jdbc, String sql, int count, Row row) {
+        List<Object[]> batch = new ArrayList<>(1000);
+        for (int i = 0; i < count; i++) {
+            batch.add(row.values(i));
+            if (batch.size() == 1000) {
+                jdbc.batchUpdate(sql, batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty())
+            jdbc.batchUpdate(sql, batch);
+    }
+
+    @Override
+    public void close() {
+        context.close();
+    }
+}
@@ -0,0 +1,36 @@
+package ru.iu3.backend.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import ru.iu3.backend.tools.Utils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Хэш пароля, который считается при каждом входе и смене пароля
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class ComputeHashBenchmark {
+
+    @Param({ "8", "64" })
+    int passwordLength;
+
+    String password;
+
+    // Соль в том же виде, в каком её создаёт UserController: 32 случайных байта в hex
+    final String salt = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+
+    @Setup
+    public void setUp() {
+        password = "p".repeat(passwordLength);
+    }
+
+    @Benchmark
+    public String computeHash() {
+        return Utils.ComputeHash(password, salt);
+    }
+}
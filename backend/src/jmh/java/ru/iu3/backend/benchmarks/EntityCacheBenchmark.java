@@ -0,0 +1,110 @@
+package ru.iu3.backend.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.iu3.backend.models.Artist;
+import ru.iu3.backend.models.Painting;
+import ru.iu3.backend.repositories.ArtistRepository;
+import ru.iu3.backend.repositories.PaintingRepository;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Чтение картин по ID и художников по имени с кэшем второго уровня и кэшем запросов и без них.
+ * Запросы идут по "горячему" набору из hot записей, который после прогрева целиком лежит в кэше:
+ * on - ни одного SQL-запроса, off - картина с художником, страной и музеем читается из H2.
+ * mvn -Pjmh test-compile exec:exec -Djmh.args="EntityCache"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(4)
+public class EntityCacheBenchmark {
+
+    @Param({ "off", "on" })
+    String cache;
+
+    @Param({ "100000" })
+    int paintings;
+
+    @Param({ "1000" })
+    int hot;
+
+    Catalog catalog;
+
+    HttpClient client;
+
+    PaintingRepository paintingRepository;
+
+    ArtistRepository artistRepository;
+
+    HttpRequest[] byIdRequests;
+
+    long[] ids;
+
+    String[] artistNames;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        boolean on = "on".equals(cache);
+        catalog = Catalog.start(paintings,
+                "spring.jpa.properties.hibernate.cache.use_second_level_cache=" + on,
+                "spring.jpa.properties.hibernate.cache.use_query_cache=" + on);
+        client = HttpClient.newHttpClient();
+        paintingRepository = catalog.bean(PaintingRepository.class);
+        artistRepository = catalog.bean(ArtistRepository.class);
+
+        ids = new long[hot];
+        byIdRequests = new HttpRequest[hot];
+        Random random = new Random(42);
+        for (int i = 0; i < hot; i++) {
+            ids[i] = 1 + random.nextInt(catalog.paintings);
+            byIdRequests[i] = HttpRequest.newBuilder(
+                            URI.create("http://localhost:" + catalog.port() + "/api/v1/paintings/" + ids[i]))
+                    .header("Authorization", "Bearer " + Catalog.TOKEN)
+                    .GET()
+                    .build();
+        }
+        List<String> names = catalog.bean(JdbcTemplate.class).queryForList(
+                "SELECT name FROM artists ORDER BY id LIMIT " + hot, String.class);
+        artistNames = names.toArray(new String[0]);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        catalog.close();
+    }
+
+    // GET /api/v1/paintings/{id} целиком: фильтры безопасности, DbExecutor, сериализация
+    @Benchmark
+    public String httpById() throws Exception {
+        HttpRequest request = byIdRequests[ThreadLocalRandom.current().nextInt(hot)];
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200)
+            throw new IllegalStateException(request.uri() + ": " + response.statusCode());
+        return response.body();
+    }
+
+    // То же чтение без HTTP: каждый вызов - отдельная транзакция и сессия, первый уровень кэша не помогает
+    @Benchmark
+    public Painting repositoryById() {
+        return paintingRepository.findById(ids[ThreadLocalRandom.current().nextInt(hot)]).orElseThrow();
+    }
+
+    // Поиск, которым пользуются добавление и изменение картин (LookupCache при промахе)
+    @Benchmark
+    public Artist findByName() {
+        return artistRepository.findByName(artistNames[ThreadLocalRandom.current().nextInt(artistNames.length)])
+                .orElseThrow();
+    }
+}
@@ -0,0 +1,102 @@
+package ru.iu3.backend.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.iu3.backend.tools.Cursor;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Списочные запросы к запущенному серверу по HTTP, вместе с фильтрами безопасности и сериализацией.
+ * Каталог лежит во встроенной H2, поэтому числа годятся для сравнения версий между собой,
+ * но не для оценки работы с MySQL.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(4)
+public class ListEndpointsBenchmark {
+
+    @Param({ "100000" })
+    int paintings;
+
+    @Param({ "paintings", "artists", "museums", "countries", "users" })
+    String endpoint;
+
+    // Номер страницы: первая и из середины каталога, где OFFSET обходится дороже всего
+    @Param({ "first", "middle" })
+    String position;
+
+    Catalog catalog;
+
+    HttpClient client;
+
+    HttpRequest pageRequest;
+
+    HttpRequest keysetRequest;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        catalog = Catalog.start(paintings);
+        client = HttpClient.newHttpClient();
+        int rows;
+        switch (endpoint) {
+            case "paintings": rows = catalog.paintings; break;
+            case "artists": rows = catalog.artists; break;
+            case "museums": rows = Catalog.MUSEUMS; break;
+            case "countries": rows = Catalog.COUNTRIES; break;
+            default: rows = Catalog.USERS;
+        }
+        int limit = 25;
+        int page = "first".equals(position) ? 0 : rows / limit / 2;
+        String base = "http://localhost:" + catalog.port() + "/api/v1/" + endpoint;
+        pageRequest = get(base + "?page=" + page + "&limit=" + limit);
+        keysetRequest = get(base + "?after=" + cursor(page * limit) + "&limit=" + limit);
+    }
+
+    // Курсор, с которого начинается та же страница, что и при выводе по номеру
+    private String cursor(int offset) {
+        if (offset == 0)
+            return "";
+        String key = "users".equals(endpoint) ? "login" : "name";
+        return catalog.bean(JdbcTemplate.class).queryForObject(
+                "SELECT " + key + ", id FROM " + endpoint + " ORDER BY " + key + ", id LIMIT 1 OFFSET " + (offset - 1),
+                (rs, i) -> new Cursor(rs.getString(1), rs.getLong(2)).encode());
+    }
+
+    private static HttpRequest get(String uri) {
+        return HttpRequest.newBuilder(URI.create(uri))
+                .header("Authorization", "Bearer " + Catalog.TOKEN)
+                .GET()
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        catalog.close();
+    }
+
+    @Benchmark
+    public String page() throws Exception {
+        return send(pageRequest);
+    }
+
+    @Benchmark
+    public String keyset() throws Exception {
+        return send(keysetRequest);
+    }
+
+    private String send(HttpRequest request) throws Exception {
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200)
+            throw new IllegalStateException(request.uri() + ": " + response.statusCode());
+        return response.body();
+    }
+}
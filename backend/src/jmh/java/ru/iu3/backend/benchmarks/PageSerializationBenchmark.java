@@ -0,0 +1,88 @@
+package ru.iu3.backend.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import ru.iu3.backend.models.*;
+import ru.iu3.backend.tools.PageSerializer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сериализация страницы картин - то, что делает конвертер сообщений с ответом GET /paintings.
+ * Данные в памяти, база не участвует.
+ * format - json, cbor или smile (заголовок Accept), envelope - страница Spring Data целиком (full)
+ * или только content и totalElements (trimmed, PageSerializer). Размер ответа в байтах печатается
+ * при подготовке каждого сочетания параметров: строки "# payload".
+ * mvn -Pjmh test-compile exec:exec -Djmh.args="PageSerialization"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class PageSerializationBenchmark {
+
+    @Param({ "10", "100" })
+    int pageSize;
+
+    @Param({ "json", "cbor", "smile" })
+    String format;
+
+    @Param({ "full", "trimmed" })
+    String envelope;
+
+    ObjectMapper objectMapper;
+
+    Page<Painting> page;
+
+    @Setup
+    public void setUp() throws Exception {
+        // Настройки Jackson те же, что у Spring Boot по умолчанию
+        Jackson2ObjectMapperBuilder builder = Jackson2ObjectMapperBuilder.json();
+        if ("cbor".equals(format))
+            builder.factory(new CBORFactory());
+        else if ("smile".equals(format))
+            builder.factory(new SmileFactory());
+        if ("trimmed".equals(envelope))
+            builder.serializerByType(Page.class, new PageSerializer());
+        objectMapper = builder.build();
+
+        List<Painting> content = new ArrayList<>(pageSize);
+        for (int i = 0; i < pageSize; i++) {
+            Country country = new Country((long) i % 7);
+            country.name = "Country " + i % 7;
+            Artist artist = new Artist((long) i % 13);
+            artist.name = "Artist " + i % 13;
+            artist.age = String.valueOf(40 + i % 13);
+            artist.country = country;
+            Museum museum = new Museum((long) i % 5);
+            museum.name = "Museum " + i % 5;
+            museum.location = "City " + i % 5;
+            Painting p = new Painting();
+            p.id = (long) i;
+            p.name = String.format("Painting %07d", i);
+            p.year = 1400L + i;
+            p.artistid = artist;
+            p.museumid = museum;
+            content.add(p);
+        }
+        page = new PageImpl<>(content, PageRequest.of(3, pageSize, Sort.by("name")), 100_000);
+        System.out.printf("# payload: pageSize=%d format=%s envelope=%s bytes=%d%n",
+                pageSize, format, envelope, objectMapper.writeValueAsBytes(page).length);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws Exception {
+        return objectMapper.writeValueAsBytes(page);
+    }
+}
@@ -0,0 +1,52 @@
+package ru.iu3.backend.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import ru.iu3.backend.tools.SearchIndex;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Подсказки при вводе: запрос к SearchIndex, заполненному сгенерированными названиями.
+ * База не нужна - записи добавляются в индекс напрямую.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+
+    private static final String[] WORDS = {
+            "утро", "вечер", "лес", "море", "портрет", "натюрморт", "берег", "сосновый", "зимний", "пейзаж",
+            "девушка", "старик", "река", "мост", "сад", "дорога", "буря", "закат", "поле", "город" };
+
+    @Param({ "100000" })
+    int paintings;
+
+    // одна буква, начало слова, два слова
+    @Param({ "п", "натюр", "зим лес" })
+    String query;
+
+    SearchIndex index;
+
+    @Setup
+    public void setUp() {
+        index = new SearchIndex(null);
+        Random random = new Random(42);
+        for (int i = 0; i < paintings; i++) {
+            StringBuilder name = new StringBuilder();
+            for (int w = 0; w < 3; w++)
+                name.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+            index.put(SearchIndex.Type.PAINTING, i, name.append(i).toString());
+        }
+    }
+
+    @Benchmark
+    public List<SearchIndex.Hit> search() {
+        return index.search(query, EnumSet.noneOf(SearchIndex.Type.class), 10);
+    }
+}
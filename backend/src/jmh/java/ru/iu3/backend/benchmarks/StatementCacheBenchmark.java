@@ -0,0 +1,125 @@
+package ru.iu3.backend.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.iu3.backend.models.Painting;
+import ru.iu3.backend.models.PaintingView;
+import ru.iu3.backend.repositories.PaintingRepository;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Запросы репозитория картин с кэшем подготовленных запросов драйвера MySQL и без него.
+ * H2 эти настройки не понимает, поэтому нужен MySQL с отдельной пустой базой - таблицы в ней
+ * создают миграции Flyway, а каталог остаётся после прогона, так что перед повторным базу нужно пересоздать:
+ * mvn -Pjmh test-compile exec:exec -Djmh.args="StatementCache -p url=jdbc:mysql://localhost:3306/art_bench -p password=..."
+ * off - URL в том виде, что был до включения кэша; on - как в application.properties.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(4)
+public class StatementCacheBenchmark {
+
+    private static final String OFF = "serverTimezone=UTC&useCursorFetch=true";
+
+    private static final String ON = OFF
+            + "&useServerPrepStmts=true&cachePrepStmts=true&prepStmtCacheSize=250&prepStmtCacheSqlLimit=2048"
+            + "&rewriteBatchedStatements=true&cacheResultSetMetadata=true&cacheServerConfiguration=true"
+            + "&elideSetAutoCommits=true&maintainTimeStats=false";
+
+    // Адрес базы MySQL без параметров драйвера
+    @Param({ "" })
+    String url;
+
+    @Param({ "art" })
+    String user;
+
+    @Param({ "" })
+    String password;
+
+    @Param({ "off", "on" })
+    String cache;
+
+    @Param({ "100000" })
+    int paintings;
+
+    Catalog catalog;
+
+    PaintingRepository paintingRepository;
+
+    JdbcTemplate jdbcTemplate;
+
+    TransactionTemplate rollback;
+
+    int middlePage;
+
+    String middleName;
+
+    long middleId;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        if (url.isEmpty())
+            throw new IllegalStateException("Нужен MySQL: -p url=jdbc:mysql://host:3306/база");
+        catalog = Catalog.start(paintings,
+                "spring.datasource.url=" + url + "?" + ("on".equals(cache) ? ON : OFF),
+                "spring.datasource.username=" + user,
+                "spring.datasource.password=" + password);
+        paintingRepository = catalog.bean(PaintingRepository.class);
+        jdbcTemplate = catalog.bean(JdbcTemplate.class);
+        rollback = new TransactionTemplate(catalog.bean(PlatformTransactionManager.class));
+        middlePage = paintings / 25 / 2;
+        middleId = paintings / 2;
+        middleName = jdbcTemplate.queryForObject("SELECT name FROM paintings WHERE id = ?", String.class, middleId);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        catalog.close();
+    }
+
+    @Benchmark
+    public Page<PaintingView> page() {
+        return paintingRepository.findAllViews(PageRequest.of(middlePage, 25, Sort.by(Sort.Direction.ASC, "name")));
+    }
+
+    @Benchmark
+    public List<PaintingView> keyset() {
+        return paintingRepository.findPageAfter(middleName, middleId, PageRequest.of(0, 26));
+    }
+
+    @Benchmark
+    public Painting byId() {
+        return paintingRepository.findById(middleId).orElseThrow();
+    }
+
+    @Benchmark
+    public Page<PaintingView> museumPaintings() {
+        return paintingRepository.findByMuseum(1 + middleId % Catalog.MUSEUMS,
+                PageRequest.of(0, 25, Sort.by(Sort.Direction.ASC, "name")));
+    }
+
+    // Пакет из 100 строк: с rewriteBatchedStatements это один INSERT, без него - сто. Транзакция откатывается
+    @Benchmark
+    public int[] batchInsert() {
+        List<Object[]> rows = new ArrayList<>(100);
+        for (int i = 0; i < 100; i++)
+            rows.add(new Object[] { "Batch " + i, 1, 1, 1900 + i });
+        return rollback.execute(status -> {
+            status.setRollbackOnly();
+            return jdbcTemplate.batchUpdate("INSERT INTO paintings (name, artistid, museumid, year) VALUES (?, ?, ?, ?)",
+                    rows);
+        });
+    }
+}
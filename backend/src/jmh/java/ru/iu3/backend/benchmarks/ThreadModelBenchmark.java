@@ -0,0 +1,97 @@
+package ru.iu3.backend.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.iu3.backend.auth.PasswordHasher;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Обычные и виртуальные потоки Tomcat при числе одновременных запросов больше пула Tomcat (200 потоков).
+ * Виртуальные потоки есть только в JDK 21 и новее, на старом JDK оба варианта работают на обычных потоках.
+ * dbAsync = false - чтение из базы в потоке запроса, как до DbExecutor.
+ * В журнал пишутся случаи закрепления виртуального потока за носителем; при H2 их много из-за самой H2,
+ * о MySQL это ничего не говорит.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = "-Djdk.tracePinnedThreads=short")
+@Threads(400)
+public class ThreadModelBenchmark {
+
+    private static final String LOGIN = "user0001";
+    private static final String PASSWORD = "benchmark-password";
+
+    @Param({ "platform", "virtual" })
+    String threads;
+
+    @Param({ "true", "false" })
+    boolean dbAsync;
+
+    @Param({ "list", "id", "login" })
+    String endpoint;
+
+    Catalog catalog;
+
+    HttpClient client;
+
+    HttpRequest request;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        catalog = Catalog.start(100000,
+                "private.virtual-threads=" + "virtual".equals(threads),
+                "private.db-async=" + dbAsync,
+                // очереди длиннее числа клиентов: меряем задержку, а не отказы 503 и 429
+                "private.db-queue-size=1000",
+                "private.hash-queue-size=1000",
+                "private.login-rate.per-login=1000000000",
+                "private.login-rate.per-ip=1000000000");
+        String hash = catalog.bean(PasswordHasher.class).hash(PASSWORD).join();
+        catalog.bean(JdbcTemplate.class).update("UPDATE users SET password = ?, salt = NULL WHERE login = ?",
+                hash, LOGIN);
+        client = HttpClient.newHttpClient();
+        String base = "http://localhost:" + catalog.port();
+        switch (endpoint) {
+            case "list":
+                request = get(base + "/api/v1/paintings?page=10&limit=25");
+                break;
+            case "id":
+                request = get(base + "/api/v1/paintings/" + (catalog.paintings / 2));
+                break;
+            default:
+                request = HttpRequest.newBuilder(URI.create(base + "/auth/login"))
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString(
+                                "{\"login\":\"" + LOGIN + "\",\"password\":\"" + PASSWORD + "\"}"))
+                        .build();
+        }
+    }
+
+    private static HttpRequest get(String uri) {
+        return HttpRequest.newBuilder(URI.create(uri))
+                .header("Authorization", "Bearer " + Catalog.TOKEN)
+                .GET()
+                .build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        catalog.close();
+    }
+
+    @Benchmark
+    public String request() throws Exception {
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200)
+            throw new IllegalStateException(request.uri() + ": " + response.statusCode());
+        return response.body();
+    }
+}
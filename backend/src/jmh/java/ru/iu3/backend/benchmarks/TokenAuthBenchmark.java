@@ -0,0 +1,63 @@
+package ru.iu3.backend.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.core.Authentication;
+import ru.iu3.backend.auth.AuthenticationFilter;
+import ru.iu3.backend.auth.SessionCache;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Проверка токена, которая предшествует каждому запросу к /api:
+ * AuthenticationFilter разбирает заголовок и передаёт токен в AuthenticationProvider.
+ * cached - сессия уже в кэше, cold - кэш сбрасывается и токен ищется в базе.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenAuthBenchmark {
+
+    @Param({ "cached", "cold" })
+    String session;
+
+    Catalog catalog;
+
+    AuthenticationFilter filter;
+
+    SessionCache sessionCache;
+
+    MockHttpServletRequest request;
+
+    MockHttpServletResponse response;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        catalog = Catalog.start(1000);
+        filter = catalog.bean(AuthenticationFilter.class);
+        sessionCache = catalog.bean(SessionCache.class);
+        request = new MockHttpServletRequest("GET", "/api/v1/paintings");
+        request.addHeader("Authorization", "Bearer " + Catalog.TOKEN);
+        response = new MockHttpServletResponse();
+    }
+
+    @Setup(Level.Invocation)
+    public void resetSession() {
+        if ("cold".equals(session))
+            sessionCache.invalidate(Catalog.TOKEN);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        catalog.close();
+    }
+
+    @Benchmark
+    public Authentication authenticate() throws Exception {
+        return filter.attemptAuthentication(request, response);
+    }
+}
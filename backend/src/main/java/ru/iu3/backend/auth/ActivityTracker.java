@@ -0,0 +1,71 @@
+package ru.iu3.backend.auth;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Отложенная запись времени активности пользователей.
+ * Запросы только отмечают время в памяти, а в базу оно уходит пакетом
+ * раз в private.activity-flush-interval миллисекунд - не чаще одного UPDATE на пользователя за интервал.
+ */
+@Component
+public class ActivityTracker {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    // Ещё не записанное в базу время активности по ID пользователя
+    private final Map<Long, LocalDateTime> pending = new ConcurrentHashMap<>();
+
+    public ActivityTracker(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public void record(Long userId, LocalDateTime activity) {
+        pending.merge(userId, activity, (a, b) -> a.isAfter(b) ? a : b);
+    }
+
+    /**
+     * Последняя активность с учётом ещё не записанной в базу
+     * @param userId - ID пользователя
+     * @param stored - значение из базы данных
+     * @return - более позднее из двух значений
+     */
+    public LocalDateTime lastSeen(Long userId, LocalDateTime stored) {
+        LocalDateTime p = pending.get(userId);
+        if (p == null || (stored != null && stored.isAfter(p)))
+            return stored;
+        return p;
+    }
+
+    @Scheduled(fixedDelayString = "${private.activity-flush-interval}")
+    public void flush() {
+        List<Map.Entry<Long, LocalDateTime>> batch = new ArrayList<>(pending.entrySet());
+        if (batch.isEmpty())
+            return;
+        List<Object[]> args = new ArrayList<>(batch.size());
+        for (Map.Entry<Long, LocalDateTime> e : batch) {
+            Timestamp t = Timestamp.valueOf(e.getValue());
+            args.add(new Object[] { t, t, e.getKey() });
+        }
+        // Вход пишет время активности сразу, и оно может оказаться новее накопленного здесь - не затираем его.
+        // COALESCE - потому что GREATEST в MySQL с NULL тоже даёт NULL
+        jdbcTemplate.batchUpdate("UPDATE users SET activity = GREATEST(COALESCE(activity, ?), ?) WHERE id = ?", args);
+        // Более свежие отметки, пришедшие во время записи, остаются до следующего раза
+        for (Map.Entry<Long, LocalDateTime> e : batch)
+            pending.remove(e.getKey(), e.getValue());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+}
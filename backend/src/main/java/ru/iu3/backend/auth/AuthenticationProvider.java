@@ -12,6 +12,8 @@ import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.security.web.authentication.www.NonceExpiredException;
 import org.springframework.stereotype.Component;
 import ru.iu3.backend.repositories.UserRepository;
+import ru.iu3.backend.tools.ReadReplicas;
+import ru.iu3.backend.tools.TableVersions;
 
 import java.time.LocalDateTime;
 import java.util.Optional;
@@ -25,6 +27,18 @@ public class AuthenticationProvider extends AbstractUserDetailsAuthenticationPro
     @Autowired
     UserRepository userRepository;
 
+    @Autowired
+    SessionCache sessionCache;
+
+    @Autowired
+    ActivityTracker activityTracker;
+
+    @Autowired
+    TableVersions tableVersions;
+
+    @Autowired
+    SignedTokens signedTokens;
+
     @Override
     protected void additionalAuthenticationChecks(UserDetails userDetails,
                                                   UsernamePasswordAuthenticationToken usernamePasswordAuthenticationToken) throws AuthenticationException {
@@ -36,30 +50,54 @@ public class AuthenticationProvider extends AbstractUserDetailsAuthenticationPro
                                        UsernamePasswordAuthenticationToken usernamePasswordAuthenticationToken)
             throws AuthenticationException {
 
-        Object token = usernamePasswordAuthenticationToken.getCredentials();
-        Optional<ru.iu3.backend.models.User> uu = userRepository.findByToken(String.valueOf(token));
+        String token = String.valueOf(usernamePasswordAuthenticationToken.getCredentials());
+        LocalDateTime dt  = LocalDateTime.now();
+
+        // Подписанный токен проверяется целиком в памяти; имя пользователя - его ID
+        if (signedTokens.enabled()) {
+            SignedTokens.Claims c = signedTokens.verify(token);
+            if (c == null)
+                throw new NonceExpiredException("token is invalid or expired");
+            activityTracker.record(c.userId, dt);
+            return userDetails(String.valueOf(c.userId), "");
+        }
+
+        // Кэш отдаёт только живые сессии, так что при попадании база не нужна
+        SessionCache.Session s = sessionCache.get(token);
+        if (s != null) {
+            activityTracker.record(s.userId, dt);
+            return userDetails(s.login, s.password);
+        }
+
+        // Токен только что выдан при входе и в реплику мог ещё не попасть
+        Optional<ru.iu3.backend.models.User> uu = ReadReplicas.onPrimary(() -> userRepository.findByToken(token));
         if (!uu.isPresent())
             throw new UsernameNotFoundException("user is not found");
         ru.iu3.backend.models.User u = uu.get();
 
         boolean timeout = true;
-        LocalDateTime dt  = LocalDateTime.now();
-        if (u.activity != null) {
-            LocalDateTime nt = u.activity.plusMinutes(sessionTimeout);
+        LocalDateTime activity = activityTracker.lastSeen(u.id, u.activity);
+        if (activity != null) {
+            LocalDateTime nt = activity.plusMinutes(sessionTimeout);
             if (dt.isBefore(nt))
                 timeout = false;
         }
         if (timeout) {
             u.token = null;
             userRepository.save(u);
+            tableVersions.bump(TableVersions.USERS);
             throw new NonceExpiredException("session is expired");
         }
         else {
-            u.activity = dt;
-            userRepository.save(u);
+            activityTracker.record(u.id, dt);
+            sessionCache.put(token, u);
         }
 
-        UserDetails user= new User(u.login, u.password,
+        return userDetails(u.login, u.password);
+    }
+
+    private UserDetails userDetails(String login, String password) {
+        UserDetails user= new User(login, password,
                 true,
                 true,
                 true,
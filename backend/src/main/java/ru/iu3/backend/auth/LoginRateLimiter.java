@@ -0,0 +1,103 @@
+package ru.iu3.backend.auth;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ограничение частоты попыток входа по логину и по IP-адресу клиента.
+ * Каждое ведро - один AtomicLong со временем, когда ведро снова станет полным (алгоритм GCRA),
+ * поэтому проверка обходится без блокировок, а ключ занимает постоянный объём памяти.
+ * Полные ведра ничем не отличаются от отсутствующих и периодически удаляются.
+ */
+@Component
+public class LoginRateLimiter {
+
+    /**
+     * Ведра одного вида ключей: не больше perMinute попыток подряд, дальше - одна попытка в interval наносекунд
+     */
+    private static class Buckets {
+        final ConcurrentHashMap<String, AtomicLong> fullAt = new ConcurrentHashMap<>();
+        final long interval;
+        final long capacity;
+        final Counter rejected;
+
+        Buckets(String scope, int perMinute, MeterRegistry meterRegistry) {
+            this.interval = TimeUnit.MINUTES.toNanos(1) / perMinute;
+            this.capacity = interval * perMinute;
+            this.rejected = Counter.builder("auth.login.rejected")
+                    .tag("scope", scope)
+                    .register(meterRegistry);
+            Gauge.builder("auth.login.buckets", fullAt, ConcurrentHashMap::size)
+                    .tag("scope", scope)
+                    .register(meterRegistry);
+        }
+
+        // 0, если попытка разрешена, иначе сколько наносекунд ждать следующей
+        long acquire(String key, long now) {
+            AtomicLong state = fullAt.computeIfAbsent(key, k -> new AtomicLong(now));
+            while (true) {
+                long at = state.get();
+                long next = Math.max(at, now) + interval;
+                if (next - now > capacity) {
+                    rejected.increment();
+                    return next - now - capacity;
+                }
+                if (state.compareAndSet(at, next))
+                    return 0;
+            }
+        }
+
+        void evictIdle(long now) {
+            // ведро, которое успели взять перед удалением, просто потеряет одну отметку
+            fullAt.values().removeIf(s -> s.get() <= now);
+        }
+    }
+
+    private final Buckets logins;
+
+    private final Buckets addresses;
+
+    public LoginRateLimiter(MeterRegistry meterRegistry,
+                            @Value("${private.login-rate.per-login}") int perLogin,
+                            @Value("${private.login-rate.per-ip}") int perIp) {
+        this.logins = new Buckets("login", perLogin, meterRegistry);
+        this.addresses = new Buckets("ip", perIp, meterRegistry);
+    }
+
+    /**
+     * Учитывает попытку входа
+     * @param login - логин из запроса
+     * @param address - IP-адрес клиента
+     * @return - 0, если попытку можно выполнять, иначе через сколько секунд повторить
+     */
+    public long tryAcquire(String login, String address) {
+        return tryAcquire(login, address, System.nanoTime());
+    }
+
+    // now - System.nanoTime(); отдельно, чтобы в тестах задавать время явно
+    long tryAcquire(String login, String address, long now) {
+        long wait = addresses.acquire(address, now);
+        if (wait == 0 && login != null)
+            wait = logins.acquire(login.toLowerCase(Locale.ROOT), now);
+        return wait == 0 ? 0 : TimeUnit.NANOSECONDS.toSeconds(wait + TimeUnit.SECONDS.toNanos(1) - 1);
+    }
+
+    @Scheduled(fixedDelay = 60000)
+    public void evictIdle() {
+        evictIdle(System.nanoTime());
+    }
+
+    void evictIdle(long now) {
+        logins.evictIdle(now);
+        addresses.evictIdle(now);
+    }
+}
@@ -0,0 +1,140 @@
+package ru.iu3.backend.auth;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.crypto.argon2.Argon2PasswordEncoder;
+import org.springframework.security.crypto.codec.Hex;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import ru.iu3.backend.models.User;
+import ru.iu3.backend.tools.Utils;
+
+import javax.annotation.PreDestroy;
+import java.security.MessageDigest;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Хэширование и проверка паролей на отдельном ограниченном пуле потоков.
+ * Новые пароли хэшируются Argon2id (соль из SecureRandom хранится внутри хэша, колонка salt не нужна),
+ * пароли в прежнем формате SHA-256 проверяются по-старому и после успешного входа перехэшируются.
+ * Когда очередь пула заполнена, запрос сразу получает 503, а потоки Tomcat не занимаются хэшированием.
+ */
+@Component
+public class PasswordHasher {
+
+    /**
+     * Итог проверки пароля
+     * @see #verify(User, String)
+     */
+    public static class Result {
+        public final boolean matches;
+        // новый хэш, если пароль был в прежнем формате, иначе null
+        public final String upgraded;
+
+        Result(boolean matches, String upgraded) {
+            this.matches = matches;
+            this.upgraded = upgraded;
+        }
+    }
+
+    private final Argon2PasswordEncoder encoder;
+
+    private final ThreadPoolExecutor executor;
+
+    private final Timer hashTimer;
+    private final Timer verifyTimer;
+    private final Timer waitTimer;
+    private final Counter rejected;
+
+    public PasswordHasher(MeterRegistry meterRegistry,
+                          @Value("${private.hash-threads}") int threads,
+                          @Value("${private.hash-queue-size}") int queueSize,
+                          @Value("${private.argon2.memory}") int memory,
+                          @Value("${private.argon2.iterations}") int iterations) {
+        // соль 16 байт, хэш 32 байта, один поток на вычисление - параллелизм даёт сам пул
+        this.encoder = new Argon2PasswordEncoder(16, 32, 1, memory, iterations);
+        AtomicInteger n = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                r -> {
+                    Thread t = new Thread(r, "password-hasher-" + n.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+
+        Gauge.builder("auth.hash.queue", executor, e -> e.getQueue().size())
+                .description("Запросы, ожидающие хэширования пароля")
+                .register(meterRegistry);
+        Gauge.builder("auth.hash.active", executor, ThreadPoolExecutor::getActiveCount)
+                .register(meterRegistry);
+        this.hashTimer = Timer.builder("auth.hash").tag("operation", "hash")
+                .publishPercentiles(0.5, 0.95, 0.99).register(meterRegistry);
+        this.verifyTimer = Timer.builder("auth.hash").tag("operation", "verify")
+                .publishPercentiles(0.5, 0.95, 0.99).register(meterRegistry);
+        this.waitTimer = Timer.builder("auth.hash.wait")
+                .description("Время в очереди до начала хэширования")
+                .publishPercentiles(0.5, 0.95, 0.99).register(meterRegistry);
+        this.rejected = Counter.builder("auth.hash.rejected").register(meterRegistry);
+    }
+
+    /**
+     * Хэш нового пароля
+     */
+    public CompletableFuture<String> hash(String password) {
+        return submit(hashTimer, () -> encoder.encode(password));
+    }
+
+    /**
+     * Проверка пароля пользователя. Для пароля в прежнем формате при совпадении сразу считается новый хэш
+     */
+    public CompletableFuture<Result> verify(User user, String password) {
+        return submit(verifyTimer, () -> {
+            if (user.password == null)
+                return new Result(false, null);
+            if (!isLegacy(user))
+                return new Result(encoder.matches(password, user.password), null);
+            boolean matches;
+            try {
+                matches = MessageDigest.isEqual(
+                        Hex.decode(user.password.toLowerCase()),
+                        Hex.decode(Utils.ComputeHash(password, user.salt)));
+            }
+            catch (IllegalArgumentException ex) {
+                // испорченный хэш или соль в базе - пароль просто не подходит, а не ошибка сервера
+                matches = false;
+            }
+            return new Result(matches, matches ? encoder.encode(password) : null);
+        });
+    }
+
+    // Прежние хэши - hex-строка SHA-256 с отдельной солью, хэши Argon2 начинаются с "$argon2"
+    private static boolean isLegacy(User user) {
+        return user.salt != null && !user.password.startsWith("$");
+    }
+
+    private <T> CompletableFuture<T> submit(Timer timer, Supplier<T> task) {
+        long queued = System.nanoTime();
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                waitTimer.record(System.nanoTime() - queued, TimeUnit.NANOSECONDS);
+                return timer.record(task);
+            }, executor);
+        }
+        catch (RejectedExecutionException ex) {
+            rejected.increment();
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Сервер перегружен, повторите попытку позже");
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -13,7 +13,12 @@ import org.springframework.security.config.http.SessionCreationPolicy;
 import org.springframework.security.web.AuthenticationEntryPoint;
 import org.springframework.security.web.authentication.AnonymousAuthenticationFilter;
 import org.springframework.security.web.authentication.HttpStatusEntryPoint;
+import org.springframework.security.web.header.writers.CacheControlHeadersWriter;
+import org.springframework.security.web.header.writers.DelegatingRequestMatcherHeaderWriter;
+import org.springframework.security.web.header.writers.StaticHeadersWriter;
+import org.springframework.security.web.util.matcher.AndRequestMatcher;
 import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
+import org.springframework.security.web.util.matcher.NegatedRequestMatcher;
 import org.springframework.security.web.util.matcher.OrRequestMatcher;
 import org.springframework.security.web.util.matcher.RequestMatcher;
 
@@ -23,7 +28,23 @@ import org.springframework.security.web.util.matcher.RequestMatcher;
 public class SecurityConfiguration extends WebSecurityConfigurerAdapter {
 
     private static final RequestMatcher PROTECTED_URLS = new OrRequestMatcher(
-            new AntPathRequestMatcher("/api/**")
+            new AntPathRequestMatcher("/api/**"),
+            // служебные эндпойнты показывают текст SQL, адреса запросов и реплик - только с токеном;
+            // без него открыт лишь health
+            new AndRequestMatcher(
+                    new AntPathRequestMatcher("/actuator/**"),
+                    new NegatedRequestMatcher(new AntPathRequestMatcher("/actuator/health/**")))
+    );
+
+    // Ответы каталога без учётных данных: их браузер может хранить и перепроверять по ETag.
+    // Остальное (пользователи с токенами, вход) - no-store, как было
+    private static final RequestMatcher CATALOG_URLS = new OrRequestMatcher(
+            new AntPathRequestMatcher("/api/v1/countries/**", "GET"),
+            new AntPathRequestMatcher("/api/v1/museums/**", "GET"),
+            new AntPathRequestMatcher("/api/v1/artists/**", "GET"),
+            new AntPathRequestMatcher("/api/v1/paintings/**", "GET"),
+            new AntPathRequestMatcher("/api/v1/search", "GET"),
+            new AntPathRequestMatcher("/api/v1/stats/**", "GET")
     );
 
     AuthenticationProvider provider;
@@ -60,6 +81,14 @@ public class SecurityConfiguration extends WebSecurityConfigurerAdapter {
                 .formLogin().disable()
                 .httpBasic().disable()
                 .logout().disable()
+                // каталог - private, no-cache: браузер хранит ответ, но каждый раз сверяет ETag с сервером
+                .headers()
+                .cacheControl().disable()
+                .addHeaderWriter(new DelegatingRequestMatcherHeaderWriter(CATALOG_URLS,
+                        new StaticHeadersWriter("Cache-Control", "private, no-cache")))
+                .addHeaderWriter(new DelegatingRequestMatcherHeaderWriter(new NegatedRequestMatcher(CATALOG_URLS),
+                        new CacheControlHeadersWriter()))
+                .and()
                 .cors();
     }
 
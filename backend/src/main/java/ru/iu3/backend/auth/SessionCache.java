@@ -0,0 +1,83 @@
+package ru.iu3.backend.auth;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.iu3.backend.models.User;
+import ru.iu3.backend.tools.Utils;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Кэш сессий: токен -> сведения о пользователе.
+ * Запись живёт, пока к ней обращаются чаще, чем раз в private.session-timeout минут,
+ * поэтому просроченная сессия из кэша никогда не возвращается.
+ * Время активности хранит {@link ActivityTracker}, так что вытеснение записи ничего не теряет.
+ */
+@Component
+public class SessionCache {
+
+    /**
+     * Сессия, которую можно проверить без обращения к базе данных
+     */
+    public static class Session {
+        public final Long userId;
+        public final String login;
+        public final String password;
+
+        Session(User u) {
+            this.userId = u.id;
+            this.login = u.login;
+            this.password = u.password;
+        }
+    }
+
+    private final Cache<String, Session> sessions;
+
+    public SessionCache(MeterRegistry meterRegistry,
+                        @Value("${private.session-timeout}") int sessionTimeout,
+                        @Value("${private.session-cache-size}") long maximumSize) {
+        this.sessions = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterAccess(sessionTimeout, TimeUnit.MINUTES)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, sessions, "sessions");
+    }
+
+    public Session get(String token) {
+        return sessions.getIfPresent(token);
+    }
+
+    public Session put(String token, User u) {
+        Session s = new Session(u);
+        sessions.put(token, s);
+        return s;
+    }
+
+    public void invalidate(String token) {
+        if (token != null)
+            sessions.invalidate(token);
+    }
+
+    public void invalidateUser(Long userId) {
+        invalidateUsers(List.of(userId));
+    }
+
+    /**
+     * Сброс сессий пользователей - после фиксации транзакции, если она есть: до неё параллельный запрос
+     * с тем же токеном прочитал бы из базы ещё не удалённого пользователя и снова положил сессию в кэш.
+     * Кэш просматривается один раз на все ID
+     */
+    public void invalidateUsers(Collection<Long> userIds) {
+        Set<Long> ids = new HashSet<>(userIds);
+        Utils.afterCommit(() -> sessions.asMap().values().removeIf(s -> ids.contains(s.userId)));
+    }
+}
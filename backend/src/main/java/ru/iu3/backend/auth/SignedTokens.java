@@ -0,0 +1,169 @@
+package ru.iu3.backend.auth;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Подписанные токены для режима private.token-mode = signed.
+ * Токен - base64url от (ID пользователя, срок действия, случайный номер) и HMAC-SHA256 от них же,
+ * поэтому проверка не требует обращения к базе. Отозванные до истечения срока токены
+ * (выход, смена пароля, удаление пользователя) хранятся в памяти, пока не истекут.
+ * Если private.token-secret не задан, ключ создаётся при запуске и токены не переживают перезапуск.
+ * Тайм-аут бездействия (private.session-timeout) в этом режиме не действует: последнее обращение
+ * пришлось бы проверять на каждом сервере по базе, а это тот самый запрос, от которого режим избавляет.
+ * Токен живёт ровно private.token-lifetime минут с момента входа, сколько бы ни простаивал.
+ */
+@Component
+public class SignedTokens {
+
+    public static final String DB = "db";
+    public static final String SIGNED = "signed";
+
+    // ID (8 байт) + срок действия в мс (8 байт) + случайный номер (8 байт)
+    private static final int PAYLOAD = 24;
+    private static final int SIGNATURE = 32;
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    /**
+     * Содержимое проверенного токена
+     */
+    public static class Claims {
+        public final long userId;
+        public final long expires;
+        final long nonce;
+
+        Claims(long userId, long expires, long nonce) {
+            this.userId = userId;
+            this.expires = expires;
+            this.nonce = nonce;
+        }
+    }
+
+    private final boolean enabled;
+
+    private final long lifetime;
+
+    private final ThreadLocal<Mac> mac;
+
+    private final SecureRandom random = new SecureRandom();
+
+    // номер отозванного токена -> срок действия токена
+    private final Map<Long, Long> revoked = new ConcurrentHashMap<>();
+
+    // ID пользователя -> момент, раньше которого выданные ему токены недействительны
+    private final Map<Long, Long> revokedUsers = new ConcurrentHashMap<>();
+
+    public SignedTokens(@Value("${private.token-mode}") String mode,
+                        @Value("${private.token-secret:}") String secret,
+                        @Value("${private.token-lifetime}") int lifetimeMinutes) {
+        this.enabled = SIGNED.equalsIgnoreCase(mode);
+        if (!enabled && !DB.equalsIgnoreCase(mode))
+            throw new IllegalArgumentException("private.token-mode: " + mode);
+        this.lifetime = TimeUnit.MINUTES.toMillis(lifetimeMinutes);
+        byte[] key;
+        if (secret.isEmpty()) {
+            key = new byte[32];
+            random.nextBytes(key);
+        }
+        else
+            key = Base64.getDecoder().decode(secret);
+        SecretKeySpec spec = new SecretKeySpec(key, "HmacSHA256");
+        this.mac = ThreadLocal.withInitial(() -> {
+            try {
+                Mac m = Mac.getInstance("HmacSHA256");
+                m.init(spec);
+                return m;
+            }
+            catch (GeneralSecurityException ex) {
+                throw new IllegalStateException(ex);
+            }
+        });
+    }
+
+    /**
+     * @return - true, если токены подписанные, false - если хранятся в users.token
+     */
+    public boolean enabled() {
+        return enabled;
+    }
+
+    public String issue(long userId) {
+        ByteBuffer payload = ByteBuffer.allocate(PAYLOAD)
+                .putLong(userId)
+                .putLong(System.currentTimeMillis() + lifetime)
+                .putLong(random.nextLong());
+        byte[] p = payload.array();
+        return ENCODER.encodeToString(p) + "." + ENCODER.encodeToString(mac.get().doFinal(p));
+    }
+
+    /**
+     * @return - содержимое токена или null, если токен поддельный, истёк или отозван
+     */
+    public Claims verify(String token) {
+        Claims c = parse(token);
+        if (c == null || c.expires <= System.currentTimeMillis() || revoked.containsKey(c.nonce))
+            return null;
+        Long before = revokedUsers.get(c.userId);
+        if (before != null && c.expires - lifetime <= before)
+            return null;
+        return c;
+    }
+
+    private Claims parse(String token) {
+        int dot = token == null ? -1 : token.indexOf('.');
+        if (dot < 0)
+            return null;
+        byte[] p, s;
+        try {
+            p = DECODER.decode(token.substring(0, dot));
+            s = DECODER.decode(token.substring(dot + 1));
+        }
+        catch (IllegalArgumentException ex) {
+            return null;
+        }
+        if (p.length != PAYLOAD || s.length != SIGNATURE || !MessageDigest.isEqual(s, mac.get().doFinal(p)))
+            return null;
+        ByteBuffer b = ByteBuffer.wrap(p);
+        return new Claims(b.getLong(), b.getLong(), b.getLong());
+    }
+
+    /**
+     * Отзыв одного токена (выход)
+     * @return - false, если токен и так недействителен
+     */
+    public boolean revoke(String token) {
+        Claims c = verify(token);
+        if (c == null)
+            return false;
+        revoked.put(c.nonce, c.expires);
+        return true;
+    }
+
+    /**
+     * Отзыв всех выданных пользователю токенов (смена пароля, удаление)
+     */
+    public void revokeUser(long userId) {
+        revokedUsers.put(userId, System.currentTimeMillis());
+    }
+
+    @Scheduled(fixedDelay = 60000)
+    public void evictExpired() {
+        long now = System.currentTimeMillis();
+        revoked.values().removeIf(expires -> expires <= now);
+        revokedUsers.values().removeIf(at -> at + lifetime <= now);
+    }
+}
@@ -1,22 +1,49 @@
 package ru.iu3.backend.controllers;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.server.ResponseStatusException;
 import ru.iu3.backend.models.*;
 import ru.iu3.backend.repositories.ArtistRepository;
-import ru.iu3.backend.repositories.CountryRepository;
+import ru.iu3.backend.repositories.PaintingRepository;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import ru.iu3.backend.tools.BulkImporter;
+import ru.iu3.backend.tools.Cursor;
 import ru.iu3.backend.tools.DataValidationException;
+import ru.iu3.backend.tools.DbExecutor;
+import ru.iu3.backend.tools.EntityCache;
+import ru.iu3.backend.tools.IdRef;
+import ru.iu3.backend.tools.KeysetPage;
+import ru.iu3.backend.tools.LookupCache;
+import ru.iu3.backend.tools.Utils;
+import ru.iu3.backend.tools.CatalogStats;
+import ru.iu3.backend.tools.NdjsonExporter;
+import ru.iu3.backend.tools.PartialUpdate;
+import ru.iu3.backend.tools.SearchIndex;
+import ru.iu3.backend.tools.TableVersions;
+import ru.iu3.backend.tools.Versions;
 import javax.validation.Valid;
+import java.io.IOException;
+import java.io.InputStream;
 /**
  * Метод, который отражает логику работы таблицы художников
  */
@@ -24,12 +51,42 @@ import javax.validation.Valid;
 @RestController
 @RequestMapping("/api/v1")
 public class ArtistController {
-    // Здесь используется два репозитория: репозиторий артистов и репозиторий стран
+    // Художник отдаётся вместе со своей страной
+    private static final String[] TABLES = { TableVersions.ARTISTS, TableVersions.COUNTRIES };
+
+    // Здесь используется репозиторий артистов, а страны ищутся по имени через кэш
     @Autowired
     ArtistRepository artistsRepository;
 
     @Autowired
-    CountryRepository countryRepository;
+    LookupCache lookupCache;
+
+    @Autowired
+    PaintingRepository paintingRepository;
+
+    @Autowired
+    NdjsonExporter ndjsonExporter;
+
+    @Autowired
+    TableVersions tableVersions;
+
+    @Autowired
+    SearchIndex searchIndex;
+
+    @Autowired
+    CatalogStats catalogStats;
+
+    @Autowired
+    BulkImporter bulkImporter;
+
+    @Autowired
+    DbExecutor dbExecutor;
+
+    @Autowired
+    EntityCache entityCache;
+
+    @Autowired
+    PartialUpdate partialUpdate;
 
     /**
      * Метод, который возвращает список артистов для данной БД
@@ -37,16 +94,78 @@ public class ArtistController {
      * @return - список артистов, который представлен в JSON
      */
     @GetMapping("/artists")
-    public Page getAllArtists(@RequestParam("page") int page, @RequestParam("limit") int limit) {
-        return artistsRepository.findAll(PageRequest.of(page, limit, Sort.by(Sort.Direction.ASC, "name")));
+    public CompletableFuture<Page<ArtistView>> getAllArtists(@RequestParam("page") int page, @RequestParam("limit") int limit,
+                                                             WebRequest request) {
+        if (request.checkNotModified(tableVersions.etag(TABLES, page, limit)))
+            return null;
+        return dbExecutor.submit("artists", TABLES, () ->
+                artistsRepository.findAllViews(PageRequest.of(page, limit, Sort.by(Sort.Direction.ASC, "name"))));
+    }
+
+    /**
+     * Постраничный вывод по курсору: стоимость не зависит от номера страницы, COUNT(*) не выполняется
+     * @param after - курсор из поля next предыдущей страницы, пустая строка - первая страница
+     * @param limit - размер страницы, больше KeysetPage.MAX_LIMIT не выдаётся
+     * @return - записи страницы и курсор следующей
+     */
+    @GetMapping(value = "/artists", params = "after")
+    public CompletableFuture<KeysetPage<ArtistView>> getArtistsAfter(@RequestParam("after") String after, @RequestParam("limit") int limit,
+                                                                     WebRequest request)
+            throws DataValidationException {
+        int n = KeysetPage.limit(limit);
+        if (request.checkNotModified(tableVersions.etag(TABLES, after, n)))
+            return null;
+        Cursor c = after.isEmpty() ? null : Cursor.decode(after);
+        Pageable top = PageRequest.of(0, n + 1);
+        return dbExecutor.submit("artists.after", TABLES, () -> {
+            List<ArtistView> rows = c == null
+                    ? artistsRepository.findFirstPage(top)
+                    : artistsRepository.findPageAfter(c.key, c.id, top);
+            return KeysetPage.of(rows, n, a -> a.name, a -> a.id);
+        });
     }
 
+    /**
+     * Выгрузка всех художников в формате NDJSON, без постраничного обхода
+     */
+    @GetMapping(value = "/artists/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public StreamingResponseBody exportArtists() {
+        return ndjsonExporter.export(artistsRepository::streamAllViews);
+    }
+
+    /**
+     * Художник по ID. ETag - версия записи и счётчики таблиц: его же можно передать в If-Match при PUT и PATCH,
+     * а на If-None-Match с тем же ETag Spring ответит 304
+     */
     @GetMapping("/artists/{id}")
-    public ResponseEntity getArtist(@PathVariable(value = "id") Long artistId)
+    public CompletableFuture<ResponseEntity<Artist>> getArtist(@PathVariable(value = "id") Long artistId)
             throws DataValidationException {
-        Artist artist = artistsRepository.findById(artistId)
-                .orElseThrow(() -> new DataValidationException("Художник с таким индексом не найден"));
-        return ResponseEntity.ok(artist);
+        String stamp = tableVersions.stamp(TABLES);
+        return dbExecutor.submit("artists.id", TABLES, () -> {
+            Artist artist = artistsRepository.findById(artistId)
+                    .orElseThrow(() -> new DataValidationException("Художник с таким индексом не найден"));
+            return ResponseEntity.ok().eTag(Versions.etag(artist.version, stamp)).body(artist);
+        });
+    }
+
+    /**
+     * Массовая загрузка художников: JSON-массив или CSV с колонками name, age, country
+     * @return - сколько загружено и какие строки отклонены
+     */
+    @PostMapping(value = "/artists/import", consumes = { MediaType.APPLICATION_JSON_VALUE, BulkImporter.CSV })
+    public ResponseEntity<BulkImporter.Report> importArtists(@RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType,
+                                                       InputStream body) throws IOException {
+        // порции фиксируются по ходу загрузки: даже если она оборвалась (разрыв соединения, ошибка
+        // в очередной порции), уже записанные строки должны попасть в ETag, кэши и поиск
+        try {
+            return ResponseEntity.ok(bulkImporter.importArtists(body, contentType));
+        }
+        finally {
+            tableVersions.bump(TableVersions.ARTISTS);
+            entityCache.evict(Artist.class);
+            searchIndex.reload(SearchIndex.Type.ARTIST);
+            catalogStats.invalidate();
+        }
     }
 
     /**
@@ -62,9 +181,12 @@ public class ArtistController {
         try {
 
             // Извлекаем самостоятельно страну из пришедших данных
-            artists.country = countryRepository.findByName(artists.country.name).orElseThrow(() -> new DataValidationException("Страна с таким индексом не найдена"));
+            artists.country = lookupCache.country(artists.country.name).orElseThrow(() -> new DataValidationException("Страна с таким индексом не найдена"));
             // Формируем новый объект класса Artists и сохраняем его в репозиторий
             Artist nc = artistsRepository.save(artists);
+            tableVersions.bump(TableVersions.ARTISTS);
+            searchIndex.put(SearchIndex.Type.ARTIST, nc.id, nc.name);
+            catalogStats.artistChanged(null, nc);
             return new ResponseEntity<Object>(nc, HttpStatus.OK);
         } catch (Exception exception) {
             // Указываем тип ошибки
@@ -76,14 +198,25 @@ public class ArtistController {
         }
     }
     @PutMapping("/artists/{id}")
-    public ResponseEntity<Artist> updateArtist(@PathVariable(value = "id") Long artistId, @Valid @RequestBody Artist artistDetails)  throws DataValidationException{
+    public ResponseEntity<Artist> updateArtist(@PathVariable(value = "id") Long artistId,
+                                               @RequestHeader(value = "If-Match", required = false) String ifMatch,
+                                               @Valid @RequestBody Artist artistDetails)  throws DataValidationException{
+        Artist artist = artistsRepository.findById(artistId).orElseThrow(() -> new DataValidationException("Художник с таким индексом не найден"));
+        Versions.check(ifMatch, artistDetails.version, artist.version);
         try {
-            Artist artist = artistsRepository.findById(artistId).orElseThrow(() -> new DataValidationException("Художник с таким индексом не найден"));
+            Long oldCountry = artist.country == null ? null : artist.country.id;
             artist.name = artistDetails.name;
-            artist.country = countryRepository.findByName(artistDetails.country.name).orElseThrow(() -> new DataValidationException("Страна с таким именем не найдена"));
+            artist.country = lookupCache.country(artistDetails.country.name).orElseThrow(() -> new DataValidationException("Страна с таким именем не найдена"));
             artist.age = artistDetails.age;
-            artistsRepository.save(artist);
-            return ResponseEntity.ok(artist);
+            artist = artistsRepository.save(artist);
+            lookupCache.evictArtists(List.of(artist.id));
+            tableVersions.bump(TableVersions.ARTISTS);
+            searchIndex.put(SearchIndex.Type.ARTIST, artist.id, artist.name);
+            catalogStats.artistChanged(oldCountry, artist);
+            return ResponseEntity.ok().eTag(Versions.etag(artist.version, tableVersions.stamp(TABLES))).body(artist);
+        }
+        catch (ObjectOptimisticLockingFailureException ex) {
+            throw Versions.conflict();
         }
         catch (Exception ex) {
             if (ex.getMessage().contains("artist.name_UNIQUE"))
@@ -93,6 +226,49 @@ public class ArtistController {
         }
     }
 
+    /**
+     * Частичное изменение художника: только переданные поля name, age, country ({"name": ...} или null),
+     * одним UPDATE без чтения записи. Версия - в If-Match или в поле version, при расхождении - 409
+     */
+    @PatchMapping("/artists/{id}")
+    public ResponseEntity<Void> patchArtist(@PathVariable(value = "id") Long artistId,
+                                            @RequestHeader(value = "If-Match", required = false) String ifMatch,
+                                            @RequestBody Map<String, Object> patch) throws DataValidationException {
+        Map<String, Object> columns = new LinkedHashMap<>();
+        if (patch.containsKey("name"))
+            columns.put("name", PartialUpdate.text(patch, "name"));
+        if (patch.containsKey("age"))
+            columns.put("age", PartialUpdate.text(patch, "age"));
+        if (patch.containsKey("country")) {
+            String country = PartialUpdate.refName(patch, "country");
+            columns.put("country", country == null ? null : lookupCache.country(country)
+                    .orElseThrow(() -> new DataValidationException("Страна с таким именем не найдена")).id);
+        }
+        try {
+            Long version = partialUpdate.update(Artist.class, TableVersions.ARTISTS, artistId, columns,
+                    PartialUpdate.version(ifMatch, patch), "Художник с таким индексом не найден");
+            lookupCache.evictArtists(List.of(artistId));
+            tableVersions.bump(TableVersions.ARTISTS);
+            String name = (String) columns.get("name");
+            if (name != null)
+                searchIndex.put(SearchIndex.Type.ARTIST, artistId, name);
+            // прежняя страна неизвестна - счётчики по странам пересчитываются целиком
+            if (columns.containsKey("country"))
+                catalogStats.invalidate();
+            else if (name != null) {
+                Artist artist = new Artist(artistId);
+                artist.name = name;
+                catalogStats.artistChanged(null, artist);
+            }
+            return PartialUpdate.updated(version, tableVersions.stamp(TABLES));
+        }
+        catch (DuplicateKeyException ex) {
+            throw new DataValidationException("Этот художник уже есть в базе");
+        }
+        catch (DataIntegrityViolationException ex) {
+            throw new DataValidationException("Неизвестная ошибка");
+        }
+    }
 
     /**
      * Метод, который обновляет данные для художников
@@ -103,12 +279,20 @@ public class ArtistController {
 
     /**
      * Метод, который удаляет художников
-     * @param  - ID художника, который будет удалён из базы данных
-     * @return - вернёт 200, если всё было ок
+     * @param artists - ID художников (или сами художники), которые будут удалены из базы данных
+     * @return - число удалённых художников
      */
+    @Transactional
     @PostMapping("/deleteartists")
-    public ResponseEntity<Object> deleteArtists(@Valid @RequestBody List<Artist> artists) {
-        artistsRepository.deleteAll(artists);
-        return new ResponseEntity<>(HttpStatus.OK);
+    public ResponseEntity<Object> deleteArtists(@RequestBody List<IdRef> artists) {
+        List<Long> ids = IdRef.ids(artists);
+        // картины удаляемых художников не удаляются, а остаются без художника
+        Utils.inChunks(ids, paintingRepository::clearArtists);
+        int deleted = Utils.inChunks(ids, artistsRepository::deleteByIds);
+        lookupCache.evictArtists(ids);
+        tableVersions.bump(TableVersions.ARTISTS, TableVersions.PAINTINGS);
+        searchIndex.remove(SearchIndex.Type.ARTIST, ids);
+        catalogStats.invalidate();
+        return ResponseEntity.ok(Map.of("deleted", deleted));
     }
 }
\ No newline at end of file
@@ -2,42 +2,129 @@
 package ru.iu3.backend.controllers;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.server.ResponseStatusException;
 import ru.iu3.backend.models.Artist;
+import ru.iu3.backend.models.ArtistView;
 import ru.iu3.backend.models.Country;
+import ru.iu3.backend.repositories.ArtistRepository;
 import ru.iu3.backend.repositories.CountryRepository;
+import ru.iu3.backend.tools.Cursor;
 import ru.iu3.backend.tools.DataValidationException;
+import ru.iu3.backend.tools.DbExecutor;
+import ru.iu3.backend.tools.EntityCache;
+import ru.iu3.backend.tools.IdRef;
+import ru.iu3.backend.tools.KeysetPage;
+import ru.iu3.backend.tools.LookupCache;
+import ru.iu3.backend.tools.Utils;
+import ru.iu3.backend.tools.CatalogStats;
+import ru.iu3.backend.tools.NdjsonExporter;
+import ru.iu3.backend.tools.PartialUpdate;
+import ru.iu3.backend.tools.TableVersions;
+import ru.iu3.backend.tools.Versions;
 import javax.validation.Valid;
 import javax.xml.crypto.Data;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 @CrossOrigin(origins = "http://localhost:3000")
 @RestController
 @RequestMapping("/api/v1")
 public class CountryController {
+    private static final String[] TABLES = { TableVersions.COUNTRIES };
+
+    // художники страны - вместе со страной
+    private static final String[] ARTIST_TABLES = { TableVersions.ARTISTS, TableVersions.COUNTRIES };
+
+    private static final Set<String> ARTIST_SORTS = Set.of("name", "age", "id");
+
     @Autowired
     CountryRepository countryRepository;
 
+    @Autowired
+    ArtistRepository artistRepository;
+
+    @Autowired
+    NdjsonExporter ndjsonExporter;
+
+    @Autowired
+    LookupCache lookupCache;
+
+    @Autowired
+    TableVersions tableVersions;
+
+    @Autowired
+    CatalogStats catalogStats;
+
+    @Autowired
+    DbExecutor dbExecutor;
+
+    @Autowired
+    PartialUpdate partialUpdate;
+
+    @Autowired
+    EntityCache entityCache;
+
     @GetMapping("/countries")
-    public Page<Country> getAllCountries(@RequestParam("page") int page, @RequestParam("limit") int limit) {
-        return countryRepository.findAll(PageRequest.of(page, limit, Sort.by(Sort.Direction.ASC, "name")));
+    public CompletableFuture<Page<Country>> getAllCountries(@RequestParam("page") int page, @RequestParam("limit") int limit,
+                                                            WebRequest request) {
+        if (request.checkNotModified(tableVersions.etag(TABLES, page, limit)))
+            return null;
+        return dbExecutor.submit("countries", TABLES, () ->
+                countryRepository.findAll(PageRequest.of(page, limit, Sort.by(Sort.Direction.ASC, "name"))));
         }
+
+    // Вывод по курсору after (пустой - первая страница), курсор следующей страницы - в поле next
+    @GetMapping(value = "/countries", params = "after")
+    public CompletableFuture<KeysetPage<Country>> getCountriesAfter(@RequestParam("after") String after, @RequestParam("limit") int limit,
+                                                                    WebRequest request)
+            throws DataValidationException {
+        int n = KeysetPage.limit(limit);
+        if (request.checkNotModified(tableVersions.etag(TABLES, after, n)))
+            return null;
+        Cursor cursor = after.isEmpty() ? null : Cursor.decode(after);
+        Pageable top = PageRequest.of(0, n + 1);
+        return dbExecutor.submit("countries.after", TABLES, () -> {
+            List<Country> rows = cursor == null
+                    ? countryRepository.findFirstPage(top)
+                    : countryRepository.findPageAfter(cursor.key, cursor.id, top);
+            return KeysetPage.of(rows, n, c -> c.name, c -> c.id);
+        });
+    }
+    // Все страны одним потоком NDJSON
+    @GetMapping(value = "/countries/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public StreamingResponseBody exportCountries() {
+        return ndjsonExporter.export(countryRepository::streamAll);
+    }
+
     @GetMapping("/countries/{id}")
-    public ResponseEntity<Country> getCountry(@PathVariable(value = "id") Long countryId)
+    public CompletableFuture<ResponseEntity<Country>> getCountry(@PathVariable(value = "id") Long countryId)
             throws DataValidationException {
-        Country country = countryRepository.findById(countryId)
-                .orElseThrow(()-> new DataValidationException("Страна с таким индексом не найдена"));
-        return ResponseEntity.ok(country);
+        String stamp = tableVersions.stamp(TABLES);
+        return dbExecutor.submit("countries.id", TABLES, () -> {
+            Country country = countryRepository.findById(countryId)
+                    .orElseThrow(()-> new DataValidationException("Страна с таким индексом не найдена"));
+            return ResponseEntity.ok().eTag(Versions.etag(country.version, stamp)).body(country);
+        });
     }
     @PostMapping("/countries")
     public ResponseEntity<Object> createCountry(@Valid @RequestBody Country country)
             throws DataValidationException {
         try {
             Country nc = countryRepository.save(country);
+            tableVersions.bump(TableVersions.COUNTRIES);
+            catalogStats.countryChanged(nc);
             return new ResponseEntity<Object>(nc, HttpStatus.OK);
         }
         catch(Exception ex) {
@@ -48,15 +135,29 @@ public class CountryController {
         }
     }
 
+    /**
+     * Изменение страны. If-Match - версия, которую клиент прочитал; если страну с тех пор
+     * изменили, ответ - 409
+     */
     @PutMapping("/countries/{id}")
-    public ResponseEntity<Country> updateCountry(@PathVariable(value = "id") Long countryId, @Valid @RequestBody Country countryDetails)
+    public ResponseEntity<Country> updateCountry(@PathVariable(value = "id") Long countryId,
+                                                 @RequestHeader(value = "If-Match", required = false) String ifMatch,
+                                                 @Valid @RequestBody Country countryDetails)
             throws DataValidationException{
+        Country country = countryRepository.findById(countryId)
+                .orElseThrow(() -> new DataValidationException("Страна с таким индексом не найдена"));
+        Versions.check(ifMatch, countryDetails.version, country.version);
         try {
-            Country country = countryRepository.findById(countryId)
-                    .orElseThrow(() -> new DataValidationException("Страна с таким индексом не найдена"));
             country.name = countryDetails.name;
-            countryRepository.save(country);
-            return ResponseEntity.ok(country);
+            country = countryRepository.save(country);
+            lookupCache.evictCountries(List.of(country.id));
+            tableVersions.bump(TableVersions.COUNTRIES);
+            catalogStats.countryChanged(country);
+            return ResponseEntity.ok().eTag(Versions.etag(country.version, tableVersions.stamp(TABLES))).body(country);
+        }
+        catch (ObjectOptimisticLockingFailureException ex) {
+            // страну изменили между чтением и записью
+            throw Versions.conflict();
         }
         catch (Exception ex) {
             if (ex.getMessage().contains("countries.name_UNIQUE"))
@@ -66,10 +167,46 @@ public class CountryController {
         }
     }
 
+    /**
+     * Частичное изменение страны одним UPDATE: {"name": "..."}
+     */
+    @PatchMapping("/countries/{id}")
+    public ResponseEntity<Void> patchCountry(@PathVariable(value = "id") Long countryId,
+                                             @RequestHeader(value = "If-Match", required = false) String ifMatch,
+                                             @RequestBody Map<String, Object> patch) throws DataValidationException {
+        Map<String, Object> columns = new LinkedHashMap<>();
+        if (patch.containsKey("name"))
+            columns.put("name", PartialUpdate.text(patch, "name"));
+        try {
+            Long version = partialUpdate.update(Country.class, TableVersions.COUNTRIES, countryId, columns,
+                    PartialUpdate.version(ifMatch, patch), "Страна с таким индексом не найдена");
+            lookupCache.evictCountries(List.of(countryId));
+            tableVersions.bump(TableVersions.COUNTRIES);
+            if (columns.containsKey("name")) {
+                Country country = new Country(countryId);
+                country.name = (String) columns.get("name");
+                catalogStats.countryChanged(country);
+            }
+            return PartialUpdate.updated(version, tableVersions.stamp(TABLES));
+        }
+        catch (DuplicateKeyException ex) {
+            throw new DataValidationException("This country is already in the database");
+        }
+        catch (DataIntegrityViolationException ex) {
+            throw new DataValidationException("Undefined error");
+        }
+    }
+
+    @Transactional
     @PostMapping("/deletecountries")
-    public ResponseEntity deleteCountries(@Valid @RequestBody List<Country> countries) {
-        countryRepository.deleteAll(countries);
-        return new ResponseEntity(HttpStatus.OK);
+    public ResponseEntity<Object> deleteCountries(@RequestBody List<IdRef> countries) {
+        List<Long> ids = IdRef.ids(countries);
+        Utils.inChunks(ids, artistRepository::clearCountries);
+        int deleted = Utils.inChunks(ids, countryRepository::deleteByIds);
+        lookupCache.evictCountries(ids);
+        tableVersions.bump(TableVersions.COUNTRIES, TableVersions.ARTISTS);
+        catalogStats.invalidate();
+        return ResponseEntity.ok(Map.of("deleted", deleted));
     }
     @DeleteMapping("/countries/{id}")
     public ResponseEntity<Object> deleteCountry(@PathVariable(value = "id") Long countryId) {
@@ -79,6 +216,11 @@ public class CountryController {
                 resp = new HashMap<>();
         if (country.isPresent()) {
             countryRepository.delete(country.get());
+            lookupCache.evictCountries(List.of(countryId));
+            // ссылки художников на страну обнуляет база (ON DELETE SET NULL), Hibernate об этом не знает
+            entityCache.evict(Artist.class);
+            tableVersions.bump(TableVersions.COUNTRIES, TableVersions.ARTISTS);
+            catalogStats.invalidate();
             resp.put("deleted", Boolean.TRUE);
         }
         else
@@ -86,18 +228,40 @@ public class CountryController {
         return ResponseEntity.ok(resp);
     }
 
+    // Художники страны постранично, отдельным запросом; коллекция Country.artists не загружается
     @GetMapping("/countries/{id}/artists")
-    public ResponseEntity<List<Artist>> getCountryArtists(@PathVariable(value = "id") Long countryId) {
-        Optional<Country> cc = countryRepository.findById(countryId);
-        if (cc.isPresent()) {
-            return ResponseEntity.ok(cc.get().artists);
-        }
-        return ResponseEntity.ok(new ArrayList<Artist>());
+    public CompletableFuture<Page<ArtistView>> getCountryArtists(@PathVariable(value = "id") Long countryId,
+                                                                 @RequestParam(value = "page", defaultValue = "0") int page,
+                                                                 @RequestParam(value = "limit", defaultValue = "100") int limit,
+                                                                 @RequestParam(value = "sort", defaultValue = "name") String sort,
+                                                                 @RequestParam(value = "order", defaultValue = "asc") String order)
+            throws DataValidationException {
+        Pageable pageable = Utils.page(page, limit, Utils.sort(sort, order, ARTIST_SORTS));
+        return dbExecutor.submit("countries.artists", ARTIST_TABLES, () -> {
+            Page<ArtistView> artists = artistRepository.findByCountry(countryId, pageable);
+            // пустая страница - ещё не значит, что страна есть
+            if (artists.isEmpty() && !countryRepository.existsById(countryId))
+                throw new DataValidationException("Страна с таким индексом не найдена");
+            return artists;
+        });
     }
 
-
-
-
-
+    // То же по курсору, сортировка по имени
+    @GetMapping(value = "/countries/{id}/artists", params = "after")
+    public CompletableFuture<KeysetPage<ArtistView>> getCountryArtistsAfter(@PathVariable(value = "id") Long countryId,
+                                                                            @RequestParam("after") String after,
+                                                                            @RequestParam(value = "limit", defaultValue = "100") int limit)
+            throws DataValidationException {
+        int n = KeysetPage.limit(limit);
+        Cursor c = after.isEmpty() ? null : Cursor.decode(after);
+        Pageable top = PageRequest.of(0, n + 1);
+        return dbExecutor.submit("countries.artists.after", ARTIST_TABLES, () -> {
+            List<ArtistView> rows = c == null
+                    ? artistRepository.findCountryFirstPage(countryId, top)
+                    : artistRepository.findCountryPageAfter(countryId, c.key, c.id, top);
+            if (rows.isEmpty() && !countryRepository.existsById(countryId))
+                throw new DataValidationException("Страна с таким индексом не найдена");
+            return KeysetPage.of(rows, n, a -> a.name, a -> a.id);
+        });
+    }
 }
-
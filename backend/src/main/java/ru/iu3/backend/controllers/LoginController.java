@@ -1,18 +1,29 @@
 package ru.iu3.backend.controllers;
 
 import org.apache.commons.lang3.StringUtils;
+import org.hibernate.Hibernate;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import ru.iu3.backend.auth.LoginRateLimiter;
+import ru.iu3.backend.auth.PasswordHasher;
+import ru.iu3.backend.auth.SessionCache;
+import ru.iu3.backend.auth.SignedTokens;
 import ru.iu3.backend.models.User;
 import ru.iu3.backend.repositories.UserRepository;
+import ru.iu3.backend.tools.DbExecutor;
+import ru.iu3.backend.tools.TableVersions;
 import ru.iu3.backend.tools.Utils;
 
+import javax.servlet.http.HttpServletRequest;
 import java.time.LocalDateTime;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 @CrossOrigin(origins = "http://localhost:3000")
 @RestController
 @RequestMapping("/auth")
@@ -21,39 +32,100 @@ public class LoginController {
     @Autowired
     private UserRepository userRepository;
 
+    @Autowired
+    private SessionCache sessionCache;
+
+    // Токен входит в ответы /users, поэтому вход и выход меняют их ETag
+    @Autowired
+    private TableVersions tableVersions;
+
+    @Autowired
+    private PasswordHasher passwordHasher;
+
+    @Autowired
+    private LoginRateLimiter loginRateLimiter;
+
+    @Autowired
+    private SignedTokens signedTokens;
+
+    @Autowired
+    private DbExecutor dbExecutor;
+
+    /**
+     * Вход по логину и паролю. Пользователь читается и сохраняется в пуле DbExecutor, пароль проверяется
+     * в пуле PasswordHasher, поток запроса при этом свободен
+     * @return - пользователь с новым токеном, 401 при неверных данных, 429 при частых попытках, 503 при перегрузке
+     */
     @PostMapping("/login")
-    public ResponseEntity<Object> login(@RequestBody Map<String, String> credentials) {
+    public CompletableFuture<ResponseEntity<Object>> login(@RequestBody Map<String, String> credentials,
+                                                           HttpServletRequest request) {
         String login = credentials.get("login");
         String pwd = credentials.get("password");
-        if (!pwd.isEmpty() && !login.isEmpty()) {
+        // лимит проверяется раньше любых обращений к базе
+        long retryAfter = loginRateLimiter.tryAcquire(login, request.getRemoteAddr());
+        if (retryAfter > 0)
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter))
+                    .build());
+        if (pwd.isEmpty() || login.isEmpty())
+            return CompletableFuture.completedFuture(new ResponseEntity<Object>(HttpStatus.UNAUTHORIZED));
+        // поиск пользователя - в пуле DbExecutor, проверка пароля - в пуле PasswordHasher
+        return dbExecutor.submit("login", () -> {
             Optional<User> uu = userRepository.findByLogin(login);
-            if (uu.isPresent()) {
-                User u2 = uu.get();
-                String hash1 = u2.password;
-                String salt = u2.salt;
-                String hash2 = Utils.ComputeHash(pwd, salt);
-                if (hash1.toLowerCase().equals(hash2.toLowerCase())) {
-                    String token = UUID.randomUUID().toString();
-                    u2.token = token;
+            // ответ сериализуется уже не в потоке запроса, поэтому музеи загружаем сейчас
+            uu.ifPresent(u -> Hibernate.initialize(u.museums));
+            return uu;
+        }).thenCompose(uu -> {
+            if (uu.isEmpty())
+                return CompletableFuture.completedFuture(new ResponseEntity<Object>(HttpStatus.UNAUTHORIZED));
+            User u2 = uu.get();
+            return passwordHasher.verify(u2, pwd).thenCompose(r -> {
+                if (!r.matches)
+                    return CompletableFuture.completedFuture(new ResponseEntity<Object>(HttpStatus.UNAUTHORIZED));
+                // запись - снова в пуле DbExecutor: поток хэширования не должен ждать соединения
+                return dbExecutor.submitWrite("login.save", () -> {
+                    if (r.upgraded != null) {
+                        u2.password = r.upgraded;
+                        u2.salt = null;
+                    }
                     u2.activity = LocalDateTime.now();
-                    User u3 = userRepository.saveAndFlush(u2);
-                    return new ResponseEntity<Object>(u3, HttpStatus.OK);
-                }
-            }
-        }
-        return new ResponseEntity<Object>(HttpStatus.UNAUTHORIZED);
-        }
+                    // прежний токен убираем из кэша сессий после фиксации: до неё запрос с этим токеном
+                    // ещё найдёт его в базе и снова положит в кэш, где он продолжил бы действовать
+                    String old = u2.token;
+                    Utils.afterCommit(() -> sessionCache.invalidate(old));
+                    if (signedTokens.enabled()) {
+                        // подписанный токен в базу не пишется, он нужен только в ответе. Токен, оставшийся
+                        // в users.token с режима db, стираем - иначе после возврата в этот режим он снова годится
+                        u2.token = null;
+                        userRepository.saveAndFlush(u2);
+                        u2.token = signedTokens.issue(u2.id);
+                    }
+                    else {
+                        u2.token = UUID.randomUUID().toString();
+                        userRepository.saveAndFlush(u2);
+                    }
+                    tableVersions.bump(TableVersions.USERS);
+                    // /auth/login идёт мимо Spring Security, а в ответе токен - запрещаем хранить его явно
+                    return ResponseEntity.ok().cacheControl(CacheControl.noStore()).<Object>body(u2);
+                });
+            });
+        });
+    }
 
 
     @GetMapping("/logout")
     public ResponseEntity logout(@RequestHeader(value = "Authorization", required = false) String token) {
         if (token != null && !token.isEmpty()) {
             token = StringUtils.removeStart(token, "Bearer").trim();
+            if (signedTokens.enabled())
+                return new ResponseEntity(signedTokens.revoke(token) ? HttpStatus.OK : HttpStatus.UNAUTHORIZED);
             Optional<User> uu = userRepository.findByToken(token);
             if (uu.isPresent()) {
                 User u = uu.get();
+                sessionCache.invalidate(token);
                 u.token = null;
                 userRepository.save(u);
+                tableVersions.bump(TableVersions.USERS);
                 return new ResponseEntity(HttpStatus.OK);
             }
         }
@@ -1,19 +1,42 @@
 package ru.iu3.backend.controllers;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.server.ResponseStatusException;
 import ru.iu3.backend.models.Museum;
 import ru.iu3.backend.models.Country;
 import ru.iu3.backend.models.Painting;
+import ru.iu3.backend.models.PaintingView;
 import ru.iu3.backend.repositories.MuseumRepository;
+import ru.iu3.backend.repositories.PaintingRepository;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import ru.iu3.backend.tools.Cursor;
 import ru.iu3.backend.tools.DataValidationException;
+import ru.iu3.backend.tools.DbExecutor;
+import ru.iu3.backend.tools.IdRef;
+import ru.iu3.backend.tools.KeysetPage;
+import ru.iu3.backend.tools.LookupCache;
+import ru.iu3.backend.tools.Utils;
+import ru.iu3.backend.tools.CatalogStats;
+import ru.iu3.backend.tools.NdjsonExporter;
+import ru.iu3.backend.tools.PartialUpdate;
+import ru.iu3.backend.tools.SearchIndex;
+import ru.iu3.backend.tools.TableVersions;
+import ru.iu3.backend.tools.Versions;
 
 import javax.validation.Valid;
 
@@ -24,37 +47,140 @@ import javax.validation.Valid;
 @RestController
 @RequestMapping("api/v1")
 public class MuseumController {
+    private static final String[] TABLES = { TableVersions.MUSEUMS };
+
+    // картины музея - с художником, его страной и музеем
+    private static final String[] PAINTING_TABLES = {
+            TableVersions.PAINTINGS, TableVersions.ARTISTS, TableVersions.COUNTRIES, TableVersions.MUSEUMS };
+
+    private static final Set<String> PAINTING_SORTS = Set.of("name", "year", "id");
+
     // Репозиторий нашего музея
     @Autowired
     MuseumRepository museumRepository;
 
+    @Autowired
+    PaintingRepository paintingRepository;
+
+    @Autowired
+    NdjsonExporter ndjsonExporter;
+
+    @Autowired
+    LookupCache lookupCache;
+
+    @Autowired
+    TableVersions tableVersions;
+
+    @Autowired
+    SearchIndex searchIndex;
+
+    @Autowired
+    CatalogStats catalogStats;
+
+    @Autowired
+    DbExecutor dbExecutor;
+
+    @Autowired
+    PartialUpdate partialUpdate;
+
     /**
      * Метод, который выдаёт список музеев
      * @return - список музеев, представленный в формате JSON
      */
     @GetMapping("/museums")
-    public Page<Museum> getAllMuseums(@RequestParam("page") int page, @RequestParam("limit") int limit) {
-        return museumRepository.findAll(PageRequest.of(page, limit, Sort.by(Sort.Direction.ASC, "name")));
+    public CompletableFuture<Page<Museum>> getAllMuseums(@RequestParam("page") int page, @RequestParam("limit") int limit,
+                                                         WebRequest request) {
+        if (request.checkNotModified(tableVersions.etag(TABLES, page, limit)))
+            return null;
+        return dbExecutor.submit("museums", TABLES, () ->
+                museumRepository.findAll(PageRequest.of(page, limit, Sort.by(Sort.Direction.ASC, "name"))));
+    }
+
+    /**
+     * Метод, который выдаёт страницу музеев по курсору after вместо номера страницы
+     * @return - музеи и курсор next для следующего запроса
+     */
+    @GetMapping(value = "/museums", params = "after")
+    public CompletableFuture<KeysetPage<Museum>> getMuseumsAfter(@RequestParam("after") String after, @RequestParam("limit") int limit,
+                                                                 WebRequest request)
+            throws DataValidationException {
+        int n = KeysetPage.limit(limit);
+        if (request.checkNotModified(tableVersions.etag(TABLES, after, n)))
+            return null;
+        Cursor c = after.isEmpty() ? null : Cursor.decode(after);
+        Pageable top = PageRequest.of(0, n + 1);
+        return dbExecutor.submit("museums.after", TABLES, () -> {
+            List<Museum> rows = c == null
+                    ? museumRepository.findFirstPage(top)
+                    : museumRepository.findPageAfter(c.key, c.id, top);
+            return KeysetPage.of(rows, n, m -> m.name, m -> m.id);
+        });
+    }
+    /**
+     * Метод, который выгружает все музеи построчно (NDJSON)
+     * @return - поток, который пишется в ответ по мере чтения из базы
+     */
+    @GetMapping(value = "/museums/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public StreamingResponseBody exportMuseums() {
+        return ndjsonExporter.export(museumRepository::streamAll);
     }
+
     @GetMapping("/museums/{id}")
-    public ResponseEntity<Museum> getMuseum(@PathVariable(value = "id") Long museumId)
+    public CompletableFuture<ResponseEntity<Museum>> getMuseum(@PathVariable(value = "id") Long museumId)
             throws DataValidationException {
-        Museum museum = museumRepository.findById(museumId).orElseThrow(()->new DataValidationException("Музей с таким индексом не найден"));
-        return ResponseEntity.ok(museum);
+        String stamp = tableVersions.stamp(TABLES);
+        return dbExecutor.submit("museums.id", TABLES, () -> {
+            Museum museum = museumRepository.findById(museumId).orElseThrow(()->new DataValidationException("Музей с таким индексом не найден"));
+            return ResponseEntity.ok().eTag(Versions.etag(museum.version, stamp)).body(museum);
+        });
     }
     /**
-     * Метод, который осуществляет предоставление доступа к картине из вывода музея
-     * @param museumID - ID картины
-     * @return - блок картин, если таковы есть
+     * Метод, который выдаёт картины музея постранично - отдельным запросом, без загрузки коллекции Museum.paintings
+     * @param museumID - ID музея
+     * @param sort - поле сортировки: name, year или id
+     * @param order - asc или desc
+     * @return - страница картин
+     * @throws DataValidationException - если музея нет или page, limit вне допустимых значений
      */
     @GetMapping("/museums/{id}/paintings")
-    public ResponseEntity<List<Painting>> getPaintingMuseums(@PathVariable(value = "id") Long museumID) {
-        Optional<Museum> cc = museumRepository.findById(museumID);
-        if (cc.isPresent()) {
-            return ResponseEntity.ok(cc.get().paintings);
-        }
+    public CompletableFuture<Page<PaintingView>> getPaintingMuseums(@PathVariable(value = "id") Long museumID,
+                                                                    @RequestParam(value = "page", defaultValue = "0") int page,
+                                                                    @RequestParam(value = "limit", defaultValue = "100") int limit,
+                                                                    @RequestParam(value = "sort", defaultValue = "name") String sort,
+                                                                    @RequestParam(value = "order", defaultValue = "asc") String order)
+            throws DataValidationException {
+        Pageable pageable = Utils.page(page, limit, Utils.sort(sort, order, PAINTING_SORTS));
+        return dbExecutor.submit("museums.paintings", PAINTING_TABLES, () -> {
+            Page<PaintingView> paintings = paintingRepository.findByMuseum(museumID, pageable);
+            // существование музея проверяется, только если картин не нашлось
+            if (paintings.isEmpty() && !museumRepository.existsById(museumID))
+                throw new DataValidationException("Музей с таким индексом не найден");
+            return paintings;
+        });
+    }
 
-        return ResponseEntity.ok(new ArrayList<Painting>());
+    /**
+     * Картины музея по курсору (сортировка по названию)
+     * @param after - курсор next предыдущей страницы, пустая строка - первая страница
+     */
+    @GetMapping(value = "/museums/{id}/paintings", params = "after")
+    public CompletableFuture<KeysetPage<PaintingView>> getMuseumPaintingsAfter(@PathVariable(value = "id") Long museumID,
+                                                                               @RequestParam("after") String after,
+                                                                               @RequestParam(value = "limit", defaultValue = "100") int limit)
+            throws DataValidationException {
+        int n = KeysetPage.limit(limit);
+        Cursor c = after.isEmpty() ? null : Cursor.decode(after);
+        Pageable top = PageRequest.of(0, n + 1);
+        return dbExecutor.submit("museums.paintings.after", PAINTING_TABLES, () -> {
+            List<PaintingView> rows = c == null
+                    ? paintingRepository.findMuseumFirstPage(museumID, top)
+                    : c.key == null
+                    ? paintingRepository.findMuseumPageAfterUnnamed(museumID, c.id, top)
+                    : paintingRepository.findMuseumPageAfter(museumID, c.key, c.id, top);
+            if (rows.isEmpty() && !museumRepository.existsById(museumID))
+                throw new DataValidationException("Музей с таким индексом не найден");
+            return KeysetPage.of(rows, n, p -> p.name, p -> p.id);
+        });
     }
 
     /**
@@ -68,6 +194,9 @@ public class MuseumController {
         try {
             // Попытка сохранить что-либо в базу данных
             Museum newMusem = museumRepository.save(museum);
+            tableVersions.bump(TableVersions.MUSEUMS);
+            searchIndex.put(SearchIndex.Type.MUSEUM, newMusem.id, newMusem.name, newMusem.location);
+            catalogStats.museumChanged(newMusem);
             return new ResponseEntity<Object>(newMusem, HttpStatus.OK);
         } catch (Exception exception) {
             // Указываем тип ошибки
@@ -86,13 +215,23 @@ public class MuseumController {
      * @return - ОК/НЕ ОК
      */
     @PutMapping("/museums/{id}")
-    public ResponseEntity<Museum> updateMuseum(@PathVariable(value = "id") Long museumId, @Valid @RequestBody Museum museumDetails)  throws DataValidationException{
+    public ResponseEntity<Museum> updateMuseum(@PathVariable(value = "id") Long museumId,
+                                               @RequestHeader(value = "If-Match", required = false) String ifMatch,
+                                               @Valid @RequestBody Museum museumDetails)  throws DataValidationException{
+        Museum museum = museumRepository.findById(museumId).orElseThrow(() -> new DataValidationException("Музей с таким индексом не найден"));
+        Versions.check(ifMatch, museumDetails.version, museum.version);
         try {
-            Museum museum = museumRepository.findById(museumId).orElseThrow(() -> new DataValidationException("Музей с таким индексом не найден"));
             museum.name = museumDetails.name;
             museum.location = museumDetails.location;
-            museumRepository.save(museum);
-            return ResponseEntity.ok(museum);
+            museum = museumRepository.save(museum);
+            lookupCache.evictMuseums(List.of(museum.id));
+            tableVersions.bump(TableVersions.MUSEUMS);
+            searchIndex.put(SearchIndex.Type.MUSEUM, museum.id, museum.name, museum.location);
+            catalogStats.museumChanged(museum);
+            return ResponseEntity.ok().eTag(Versions.etag(museum.version, tableVersions.stamp(TABLES))).body(museum);
+        }
+        catch (ObjectOptimisticLockingFailureException ex) {
+            throw Versions.conflict();
         }
         catch (Exception ex) {
             if (ex.getMessage().contains("museum.name_UNIQUE"))
@@ -101,14 +240,60 @@ public class MuseumController {
                 throw new DataValidationException("Неизвестная ошибка");
         }
     }
+
+    /**
+     * Частичное изменение музея (поля name, location) одним UPDATE.
+     * @param ifMatch - ожидаемая версия музея; можно передать и полем version
+     * @return - 204, новая версия - в ETag
+     */
+    @PatchMapping("/museums/{id}")
+    public ResponseEntity<Void> patchMuseum(@PathVariable(value = "id") Long museumId,
+                                            @RequestHeader(value = "If-Match", required = false) String ifMatch,
+                                            @RequestBody Map<String, Object> patch) throws DataValidationException {
+        Map<String, Object> columns = new LinkedHashMap<>();
+        if (patch.containsKey("name"))
+            columns.put("name", PartialUpdate.text(patch, "name"));
+        if (patch.containsKey("location"))
+            columns.put("location", PartialUpdate.text(patch, "location"));
+        try {
+            Long version = partialUpdate.update(Museum.class, TableVersions.MUSEUMS, museumId, columns,
+                    PartialUpdate.version(ifMatch, patch), "Музей с таким индексом не найден");
+            lookupCache.evictMuseums(List.of(museumId));
+            tableVersions.bump(TableVersions.MUSEUMS);
+            // в поиске у музея и название, и адрес, а изменено могло быть только одно из них
+            searchIndex.refresh(SearchIndex.Type.MUSEUM, museumId);
+            if (columns.containsKey("name")) {
+                Museum museum = new Museum(museumId);
+                museum.name = (String) columns.get("name");
+                catalogStats.museumChanged(museum);
+            }
+            return PartialUpdate.updated(version, tableVersions.stamp(TABLES));
+        }
+        catch (DuplicateKeyException ex) {
+            throw new DataValidationException("Этот музей уже есть в базе");
+        }
+        catch (DataIntegrityViolationException ex) {
+            throw new DataValidationException("Неизвестная ошибка");
+        }
+    }
+
     /**
-     * Метод, который удаляет информацию из базы данных
-     * @param - по какому ID-шнику удаляем информацию
-     * @return - возвращает true, если удалено успешно, false - в противном случае
+     * Метод, который удаляет музеи из базы данных.
+     * Связи музеев с пользователями удаляются, картины остаются без музея
+     * @param museums - ID музеев (или сами музеи)
+     * @return - число удалённых музеев
      */
+    @Transactional
     @PostMapping("/deletemuseums")
-    public ResponseEntity<Object> deleteMuseums(@Valid @RequestBody List<Museum> museums) {
-        museumRepository.deleteAll(museums);
-        return new ResponseEntity<>(HttpStatus.OK);
+    public ResponseEntity<Object> deleteMuseums(@RequestBody List<IdRef> museums) {
+        List<Long> ids = IdRef.ids(museums);
+        Utils.inChunks(ids, museumRepository::deleteUserLinks);
+        Utils.inChunks(ids, paintingRepository::clearMuseums);
+        int deleted = Utils.inChunks(ids, museumRepository::deleteByIds);
+        lookupCache.evictMuseums(ids);
+        tableVersions.bump(TableVersions.MUSEUMS, TableVersions.PAINTINGS, TableVersions.USERS);
+        searchIndex.remove(SearchIndex.Type.MUSEUM, ids);
+        catalogStats.invalidate();
+        return ResponseEntity.ok(Map.of("deleted", deleted));
     }
 }
\ No newline at end of file
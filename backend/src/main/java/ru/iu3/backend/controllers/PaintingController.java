@@ -1,24 +1,50 @@
 package ru.iu3.backend.controllers;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.server.ResponseStatusException;
 import ru.iu3.backend.models.Painting;
-import ru.iu3.backend.repositories.MuseumRepository;
-import ru.iu3.backend.repositories.ArtistRepository;
+import ru.iu3.backend.models.PaintingView;
 import ru.iu3.backend.repositories.PaintingRepository;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import ru.iu3.backend.tools.BulkImporter;
+import ru.iu3.backend.tools.Cursor;
 import ru.iu3.backend.tools.DataValidationException;
+import ru.iu3.backend.tools.DbExecutor;
+import ru.iu3.backend.tools.EntityCache;
+import ru.iu3.backend.tools.IdRef;
+import ru.iu3.backend.tools.KeysetPage;
+import ru.iu3.backend.tools.LookupCache;
+import ru.iu3.backend.tools.Utils;
+import ru.iu3.backend.tools.CatalogStats;
+import ru.iu3.backend.tools.NdjsonExporter;
+import ru.iu3.backend.tools.PartialUpdate;
+import ru.iu3.backend.tools.SearchIndex;
+import ru.iu3.backend.tools.TableVersions;
+import ru.iu3.backend.tools.Versions;
 
 import javax.validation.Valid;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 
 /**
@@ -29,32 +55,118 @@ import java.util.Optional;
 @RestController
 @RequestMapping("api/v1")
 public class PaintingController {
-    // По аналогии у нас будет два репозитория
+    // Ответы о картинах включают художника, его страну и музей
+    private static final String[] TABLES = {
+            TableVersions.PAINTINGS, TableVersions.ARTISTS, TableVersions.COUNTRIES, TableVersions.MUSEUMS };
+
+    // Репозиторий картин; художники и музеи ищутся по имени через кэш
     @Autowired
     PaintingRepository paintingRepository;
 
     @Autowired
-    MuseumRepository museumRepository;
+    LookupCache lookupCache;
+
+    @Autowired
+    NdjsonExporter ndjsonExporter;
+
+    @Autowired
+    TableVersions tableVersions;
+
+    @Autowired
+    SearchIndex searchIndex;
+
+    @Autowired
+    CatalogStats catalogStats;
+
+    @Autowired
+    BulkImporter bulkImporter;
 
     @Autowired
-    ArtistRepository artistRepository;
+    DbExecutor dbExecutor;
+
+    @Autowired
+    EntityCache entityCache;
+
+    @Autowired
+    PartialUpdate partialUpdate;
     /**
      * Метод, который возвращает список всех картин, которые есть в базе данных
      * @return - список картин
      */
     @GetMapping("/paintings")
-        public Page getAllPaintings(@RequestParam("page") int page, @RequestParam("limit") int limit) {
-            return paintingRepository.findAll(PageRequest.of(page, limit, Sort.by(Sort.Direction.ASC, "name")));
+        public CompletableFuture<Page<PaintingView>> getAllPaintings(@RequestParam("page") int page, @RequestParam("limit") int limit,
+                                                                     WebRequest request) {
+            if (request.checkNotModified(tableVersions.etag(TABLES, page, limit)))
+                return null;
+            return dbExecutor.submit("paintings", TABLES, () ->
+                    paintingRepository.findAllViews(PageRequest.of(page, limit, Sort.by(Sort.Direction.ASC, "name"))));
         }
 
+    /**
+     * Метод, который выдаёт картины по курсору. Глубокие страницы стоят столько же, сколько первая
+     * @param after - курсор next из предыдущего ответа, пустая строка - начало списка
+     * @param limit - сколько картин вернуть, от 1 до KeysetPage.MAX_LIMIT
+     */
+    @GetMapping(value = "/paintings", params = "after")
+    public CompletableFuture<KeysetPage<PaintingView>> getPaintingsAfter(@RequestParam("after") String after, @RequestParam("limit") int limit,
+                                                                         WebRequest request)
+            throws DataValidationException {
+        int n = KeysetPage.limit(limit);
+        if (request.checkNotModified(tableVersions.etag(TABLES, after, n)))
+            return null;
+        Cursor c = after.isEmpty() ? null : Cursor.decode(after);
+        Pageable top = PageRequest.of(0, n + 1);
+        return dbExecutor.submit("paintings.after", TABLES, () -> {
+            List<PaintingView> rows = c == null
+                    ? paintingRepository.findFirstPage(top)
+                    : c.key == null
+                    ? paintingRepository.findPageAfterUnnamed(c.id, top)
+                    : paintingRepository.findPageAfter(c.key, c.id, top);
+            return KeysetPage.of(rows, n, p -> p.name, p -> p.id);
+        });
+    }
+
+    /**
+     * Метод, который выгружает весь каталог картин в формате NDJSON.
+     * Память не зависит от числа картин: строки пишутся в ответ по мере чтения
+     */
+    @GetMapping(value = "/paintings/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public StreamingResponseBody exportPaintings() {
+        return ndjsonExporter.export(paintingRepository::streamAllViews);
+    }
+
         @GetMapping("/paintings/{id}")
-        public ResponseEntity getPainting(@PathVariable(value = "id") Long paintingId)
+        public CompletableFuture<ResponseEntity<Painting>> getPainting(@PathVariable(value = "id") Long paintingId)
             throws DataValidationException
         {
-            Painting painting = paintingRepository.findById(paintingId)
-                    .orElseThrow(()-> new DataValidationException("Картина с таким индексом не найдена"));
-            return ResponseEntity.ok(painting);
+            // счётчики - до чтения: запись, зафиксированная после них, даст уже другой ETag
+            String stamp = tableVersions.stamp(TABLES);
+            return dbExecutor.submit("paintings.id", TABLES, () -> {
+                Painting painting = paintingRepository.findById(paintingId)
+                        .orElseThrow(()-> new DataValidationException("Картина с таким индексом не найдена"));
+                return ResponseEntity.ok().eTag(Versions.etag(painting.version, stamp)).body(painting);
+            });
+        }
+    /**
+     * Метод, который загружает сразу много картин (JSON-массив или CSV).
+     * Художник и музей указываются по имени, как и при добавлении одной картины
+     * @return - число загруженных картин и ошибки по строкам
+     */
+    @PostMapping(value = "/paintings/import", consumes = { MediaType.APPLICATION_JSON_VALUE, BulkImporter.CSV })
+    public ResponseEntity<BulkImporter.Report> importPaintings(@RequestHeader(HttpHeaders.CONTENT_TYPE) String contentType,
+                                                       InputStream body) throws IOException {
+        // загруженные до ошибки порции уже в базе - сбрасываем и при исключении
+        try {
+            return ResponseEntity.ok(bulkImporter.importPaintings(body, contentType));
+        }
+        finally {
+            tableVersions.bump(TableVersions.PAINTINGS);
+            entityCache.evict(Painting.class);
+            searchIndex.reload(SearchIndex.Type.PAINTING);
+            catalogStats.invalidate();
         }
+    }
+
     /**
      * Метод, который добавляет картины в базу данных
      * @param painting - картины
@@ -63,9 +175,12 @@ public class PaintingController {
     @PostMapping("/paintings")
     public ResponseEntity<Object> createPainting(@RequestBody Painting painting) throws DataValidationException {
         try {
-            painting.artistid = artistRepository.findByName(painting.artistid.name).orElseThrow(() -> new DataValidationException("Художник с таким индексом не найден"));
-            painting.museumid = museumRepository.findByName(painting.museumid.name).orElseThrow(() -> new DataValidationException("Музей с таким индексом не найден"));
+            painting.artistid = lookupCache.artist(painting.artistid.name).orElseThrow(() -> new DataValidationException("Художник с таким индексом не найден"));
+            painting.museumid = lookupCache.museum(painting.museumid.name).orElseThrow(() -> new DataValidationException("Музей с таким индексом не найден"));
             Painting nc = paintingRepository.save(painting);
+            tableVersions.bump(TableVersions.PAINTINGS);
+            searchIndex.put(SearchIndex.Type.PAINTING, nc.id, nc.name);
+            catalogStats.paintingChanged(null, nc);
             return new ResponseEntity<Object>(nc, HttpStatus.OK);
         } catch (Exception exception) {
             // Указываем тип ошибки
@@ -83,15 +198,25 @@ public class PaintingController {
      * @return - ОК/не ОК
      */
     @PutMapping("/paintings/{id}")
-    public ResponseEntity<Painting> updatePainting(@PathVariable(value = "id") Long paintingId, @Valid @RequestBody Painting paintingDetails)  throws DataValidationException{
+    public ResponseEntity<Painting> updatePainting(@PathVariable(value = "id") Long paintingId,
+                                                   @RequestHeader(value = "If-Match", required = false) String ifMatch,
+                                                   @Valid @RequestBody Painting paintingDetails)  throws DataValidationException{
+        Painting painting = paintingRepository.findById(paintingId).orElseThrow(() -> new DataValidationException("Картина с таким индексом не найдена"));
+        Versions.check(ifMatch, paintingDetails.version, painting.version);
         try {
-            Painting painting = paintingRepository.findById(paintingId).orElseThrow(() -> new DataValidationException("Картина с таким индексом не найдена"));
+            CatalogStats.PaintingKey before = CatalogStats.key(painting);
             painting.name = paintingDetails.name;
-            painting.artistid = artistRepository.findByName(paintingDetails.artistid.name).orElseThrow(() -> new DataValidationException("Художник с таким именем не найден"));
-            painting.museumid = museumRepository.findByName(paintingDetails.museumid.name).orElseThrow(() -> new DataValidationException("Музей с таким именем не найден"));
+            painting.artistid = lookupCache.artist(paintingDetails.artistid.name).orElseThrow(() -> new DataValidationException("Художник с таким именем не найден"));
+            painting.museumid = lookupCache.museum(paintingDetails.museumid.name).orElseThrow(() -> new DataValidationException("Музей с таким именем не найден"));
             painting.year = paintingDetails.year;
-            paintingRepository.save(painting);
-            return ResponseEntity.ok(painting);
+            painting = paintingRepository.save(painting);
+            tableVersions.bump(TableVersions.PAINTINGS);
+            searchIndex.put(SearchIndex.Type.PAINTING, painting.id, painting.name);
+            catalogStats.paintingChanged(before, painting);
+            return ResponseEntity.ok().eTag(Versions.etag(painting.version, tableVersions.stamp(TABLES))).body(painting);
+        }
+        catch (ObjectOptimisticLockingFailureException ex) {
+            throw Versions.conflict();
         }
         catch (Exception ex) {
             if (ex.getMessage().contains("paintings.name_UNIQUE"))
@@ -102,13 +227,60 @@ public class PaintingController {
     }
 
     /**
-     * Метод, который осуществляет удаление картины
-     * @param  - ID картины
-     * @return - статус: удален/не удален
+     * Частичное изменение картины: name, year, artistid и museumid ({"name": ...} или null).
+     * Один UPDATE без чтения картины; художник и музей ищутся по имени, как в PUT
+     */
+    @PatchMapping("/paintings/{id}")
+    public ResponseEntity<Void> patchPainting(@PathVariable(value = "id") Long paintingId,
+                                              @RequestHeader(value = "If-Match", required = false) String ifMatch,
+                                              @RequestBody Map<String, Object> patch) throws DataValidationException {
+        Map<String, Object> columns = new LinkedHashMap<>();
+        if (patch.containsKey("name"))
+            columns.put("name", PartialUpdate.text(patch, "name"));
+        if (patch.containsKey("year"))
+            columns.put("year", PartialUpdate.number(patch, "year"));
+        if (patch.containsKey("artistid")) {
+            String artist = PartialUpdate.refName(patch, "artistid");
+            columns.put("artistid", artist == null ? null : lookupCache.artist(artist)
+                    .orElseThrow(() -> new DataValidationException("Художник с таким именем не найден")).id);
+        }
+        if (patch.containsKey("museumid")) {
+            String museum = PartialUpdate.refName(patch, "museumid");
+            columns.put("museumid", museum == null ? null : lookupCache.museum(museum)
+                    .orElseThrow(() -> new DataValidationException("Музей с таким именем не найден")).id);
+        }
+        try {
+            Long version = partialUpdate.update(Painting.class, TableVersions.PAINTINGS, paintingId, columns,
+                    PartialUpdate.version(ifMatch, patch), "Картина с таким индексом не найдена");
+            tableVersions.bump(TableVersions.PAINTINGS);
+            if (columns.containsKey("name"))
+                searchIndex.put(SearchIndex.Type.PAINTING, paintingId, (String) columns.get("name"));
+            // прежние художник, музей и год неизвестны
+            if (columns.containsKey("year") || columns.containsKey("artistid") || columns.containsKey("museumid"))
+                catalogStats.invalidate();
+            return PartialUpdate.updated(version, tableVersions.stamp(TABLES));
+        }
+        catch (DuplicateKeyException ex) {
+            throw new DataValidationException("Эта картина уже есть в базе");
+        }
+        catch (DataIntegrityViolationException ex) {
+            throw new DataValidationException("Неизвестная ошибка");
+        }
+    }
+
+    /**
+     * Метод, который осуществляет удаление картин одним запросом DELETE ... WHERE id IN (...)
+     * @param paintings - ID картин или сами картины
+     * @return - число удалённых картин
      */
+    @Transactional
     @PostMapping("/deletepaintings")
-    public ResponseEntity<Object> deletePaintings(@Valid @RequestBody List<Painting> paintings) {
-        paintingRepository.deleteAll(paintings);
-        return new ResponseEntity<>(HttpStatus.OK);
+    public ResponseEntity<Object> deletePaintings(@RequestBody List<IdRef> paintings) {
+        List<Long> ids = IdRef.ids(paintings);
+        int deleted = Utils.inChunks(ids, paintingRepository::deleteByIds);
+        tableVersions.bump(TableVersions.PAINTINGS);
+        searchIndex.remove(SearchIndex.Type.PAINTING, ids);
+        catalogStats.invalidate();
+        return ResponseEntity.ok(Map.of("deleted", deleted));
     }
 }
\ No newline at end of file
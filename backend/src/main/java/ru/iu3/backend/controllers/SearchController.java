@@ -0,0 +1,51 @@
+package ru.iu3.backend.controllers;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.*;
+import ru.iu3.backend.tools.DataValidationException;
+import ru.iu3.backend.tools.SearchIndex;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Класс - контроллер поиска по художникам, музеям и картинам
+ */
+@CrossOrigin(origins = "http://localhost:3000")
+@RestController
+@RequestMapping("/api/v1")
+public class SearchController {
+
+    private static final int MAX_LIMIT = 100;
+
+    @Autowired
+    SearchIndex searchIndex;
+
+    /**
+     * Поиск для подсказок при вводе: каждое слово запроса ищется как начало слова в названии
+     * @param q - строка запроса
+     * @param types - artist, museum, painting; если не указано - все
+     * @param limit - не больше MAX_LIMIT записей
+     * @return - найденные записи по алфавиту
+     */
+    @GetMapping("/search")
+    public List<SearchIndex.Hit> search(@RequestParam("q") String q,
+                                        @RequestParam(value = "type", required = false) List<String> types,
+                                        @RequestParam(value = "limit", defaultValue = "10") int limit)
+            throws DataValidationException {
+        Set<SearchIndex.Type> where = EnumSet.noneOf(SearchIndex.Type.class);
+        if (types != null) {
+            for (String t : types) {
+                try {
+                    where.add(SearchIndex.Type.valueOf(t.trim().toUpperCase(Locale.ROOT)));
+                }
+                catch (IllegalArgumentException ex) {
+                    throw new DataValidationException("Неизвестный тип записей: " + t);
+                }
+            }
+        }
+        return searchIndex.search(q, where, Math.min(limit, MAX_LIMIT));
+    }
+}
@@ -0,0 +1,48 @@
+package ru.iu3.backend.controllers;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.*;
+import ru.iu3.backend.tools.CatalogStats;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Класс - контроллер статистики каталога. Ответы собираются из счётчиков в памяти, без запросов к базе
+ */
+@CrossOrigin(origins = "http://localhost:3000")
+@RestController
+@RequestMapping("/api/v1/stats")
+public class StatsController {
+
+    @Autowired
+    CatalogStats catalogStats;
+
+    /**
+     * @return - число картин, художников, музеев и стран
+     */
+    @GetMapping
+    public Map<String, Long> getTotals() {
+        return catalogStats.totals();
+    }
+
+    @GetMapping("/museums")
+    public List<CatalogStats.Entry> getPaintingsByMuseum() {
+        return catalogStats.paintingsByMuseum();
+    }
+
+    @GetMapping("/artists")
+    public List<CatalogStats.Entry> getPaintingsByArtist() {
+        return catalogStats.paintingsByArtist();
+    }
+
+    @GetMapping("/countries")
+    public List<CatalogStats.Entry> getArtistsByCountry() {
+        return catalogStats.artistsByCountry();
+    }
+
+    @GetMapping("/decades")
+    public List<CatalogStats.Decade> getPaintingsByDecade() {
+        return catalogStats.paintingsByDecade();
+    }
+}
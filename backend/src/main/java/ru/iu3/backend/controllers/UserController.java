@@ -1,23 +1,45 @@
 package ru.iu3.backend.controllers;
 
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import org.hibernate.Hibernate;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.security.crypto.codec.Hex;
+import ru.iu3.backend.auth.PasswordHasher;
+import ru.iu3.backend.auth.SessionCache;
+import ru.iu3.backend.auth.SignedTokens;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import ru.iu3.backend.models.Museum;
 import ru.iu3.backend.models.User;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.server.ResponseStatusException;
 import ru.iu3.backend.repositories.UserRepository;
 import ru.iu3.backend.repositories.MuseumRepository;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.Optional;
+import ru.iu3.backend.tools.BinaryFormats;
+import ru.iu3.backend.tools.Cursor;
 import ru.iu3.backend.tools.DataValidationException;
+import ru.iu3.backend.tools.DbExecutor;
+import ru.iu3.backend.tools.IdRef;
+import ru.iu3.backend.tools.KeysetPage;
+import ru.iu3.backend.tools.NdjsonExporter;
+import ru.iu3.backend.tools.PartialUpdate;
+import ru.iu3.backend.tools.TableVersions;
+import ru.iu3.backend.tools.Versions;
 import ru.iu3.backend.tools.Utils;
 
 import javax.validation.Valid;
@@ -26,6 +48,13 @@ import javax.validation.Valid;
 @RequestMapping("api/v1")
 
 public class UserController {
+    // Пользователь отдаётся со списком своих музеев; время активности в ETag не учитывается
+    private static final String[] TABLES = { TableVersions.USERS, TableVersions.MUSEUMS };
+
+    // В выгрузке всей таблицы нет токенов: это действующие учётные данные всех пользователей сразу
+    @JsonIgnoreProperties({ "token", "np" })
+    private abstract static class ExportedUser { }
+
 
     @Autowired
     UserRepository userRepository;
@@ -33,46 +62,152 @@ public class UserController {
     @Autowired
     MuseumRepository museumRepository;
 
+    @Autowired
+    SessionCache sessionCache;
+
+    @Autowired
+    PasswordHasher passwordHasher;
+
+    @Autowired
+    SignedTokens signedTokens;
+
+    @Autowired
+    NdjsonExporter ndjsonExporter;
+
+    @Autowired
+    TableVersions tableVersions;
+
+    @Autowired
+    DbExecutor dbExecutor;
+
+    @Autowired
+    PartialUpdate partialUpdate;
+
 
     @GetMapping("/users")
-    public Page<User> getAllUsers(@RequestParam("page") int page, @RequestParam("limit") int limit) {
-        return userRepository.findAll(PageRequest.of(page, limit, Sort.by(Sort.Direction.ASC, "login")));
+    public CompletableFuture<Page<User>> getAllUsers(@RequestParam("page") int page, @RequestParam("limit") int limit,
+                                                     WebRequest request) {
+        if (request.checkNotModified(tableVersions.etag(TABLES, page, limit)))
+            return null;
+        return dbExecutor.submit("users", TABLES, () -> {
+            Page<User> users = userRepository.findAll(PageRequest.of(page, limit, Sort.by(Sort.Direction.ASC, "login")));
+            users.forEach(u -> Hibernate.initialize(u.museums));
+            return users;
+        });
     }
+
+    // То же по курсору: сортировка по логину, без OFFSET и COUNT(*)
+    @GetMapping(value = "/users", params = "after")
+    public CompletableFuture<KeysetPage<User>> getUsersAfter(@RequestParam("after") String after, @RequestParam("limit") int limit,
+                                                             WebRequest request)
+            throws DataValidationException {
+        int n = KeysetPage.limit(limit);
+        if (request.checkNotModified(tableVersions.etag(TABLES, after, n)))
+            return null;
+        Cursor c = after.isEmpty() ? null : Cursor.decode(after);
+        Pageable top = PageRequest.of(0, n + 1);
+        return dbExecutor.submit("users.after", TABLES, () -> {
+            List<User> rows = c == null
+                    ? userRepository.findFirstPage(top)
+                    : userRepository.findPageAfter(c.key, c.id, top);
+            rows.forEach(u -> Hibernate.initialize(u.museums));
+            return KeysetPage.of(rows, n, u -> u.login, u -> u.id);
+        });
+    }
+    // Выгрузка пользователей построчно (NDJSON)
+    @GetMapping(value = "/users/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public StreamingResponseBody exportUsers() {
+        return ndjsonExporter.export(userRepository::streamAll, User.class, ExportedUser.class);
+    }
+
     @GetMapping("/users/{id}")
-    public ResponseEntity<User> getUser(@PathVariable(value = "id") Long userId)
+    public CompletableFuture<ResponseEntity<User>> getUser(@PathVariable(value = "id") Long userId)
             throws DataValidationException {
-        User user = userRepository.findById(userId).orElseThrow(()->new DataValidationException("Пользователь с таким индексом не найден"));
-        return ResponseEntity.ok(user);
+        String stamp = tableVersions.stamp(TABLES);
+        return dbExecutor.submit("users.id", TABLES, () -> {
+            User user = userRepository.findById(userId).orElseThrow(()->new DataValidationException("Пользователь с таким индексом не найден"));
+            Hibernate.initialize(user.museums);
+            return ResponseEntity.ok().eTag(Versions.etag(user.version, stamp)).body(user);
+        });
     }
+    /**
+     * Изменение пользователя. Новый пароль хэшируется в пуле PasswordHasher, запись идёт в пуле DbExecutor,
+     * поток запроса ни того, ни другого не ждёт
+     */
     @PutMapping("/users/{id}")
-    public ResponseEntity<User> updateUser(@PathVariable(value = "id") Long userId, @Valid @RequestBody User userDetails) throws DataValidationException{
-        try {
+    public CompletableFuture<ResponseEntity<User>> updateUser(@PathVariable(value = "id") Long userId,
+                                                              @RequestHeader(value = "If-Match", required = false) String ifMatch,
+                                                              @Valid @RequestBody User userDetails) {
+        // при переполненной очереди хэширования - 503, а не "Неизвестная ошибка"
+        String np = userDetails.np;
+        CompletableFuture<String> hashed = np != null && !np.isEmpty()
+                ? passwordHasher.hash(np)
+                : CompletableFuture.completedFuture(null);
+        // формат ответа для ETag известен только в потоке запроса
+        String variant = BinaryFormats.variant();
+        return hashed.thenCompose(hash -> dbExecutor.submitWrite("users.update", () -> {
             User user = userRepository.findById(userId).orElseThrow(() -> new DataValidationException("Пользователь с таким индексом не найден"));
-            user.login = userDetails.login;
-            user.email = userDetails.email;
-            String np = userDetails.np;
-            if (np != null && !np.isEmpty()) {
-                byte[] b = new byte[32];
-                new Random().nextBytes(b);
-                String salt = new String(Hex.encode(b));
-                user.password = Utils.ComputeHash(np, salt);
-                user.salt = salt;
+            // версия пользователя не меняется при входе и выходе - только при изменении профиля
+            Versions.check(ifMatch, userDetails.version, user.version);
+            try {
+                user.login = userDetails.login;
+                user.email = userDetails.email;
+                if (hash != null) {
+                    user.password = hash;
+                    user.salt = null;
+                }
+                // сразу в базу: конфликт версий и повтор логина должны попасть в catch ниже
+                user = userRepository.saveAndFlush(user);
+                Hibernate.initialize(user.museums);
+                sessionCache.invalidateUser(user.id);
+                if (hash != null)
+                    signedTokens.revokeUser(user.id);
+                tableVersions.bump(TableVersions.USERS);
+                return user;
+            } catch (ObjectOptimisticLockingFailureException ex) {
+                throw Versions.conflict();
+            } catch (Exception ex) {
+                if (ex.getMessage().contains("users.name_UNIQUE"))
+                    throw new DataValidationException("Этот пользователь уже есть в базе");
+                else
+                    throw new DataValidationException("Неизвестная ошибка");
             }
-            userRepository.save(user);
-            return ResponseEntity.ok(user);
-        } catch (Exception ex) {
-            if (ex.getMessage().contains("users.name_UNIQUE"))
-                throw new DataValidationException("Этот пользователь уже есть в базе");
-            else
-                throw new DataValidationException("Неизвестная ошибка");
-        }
+        })).thenApply(user -> // счётчик таблицы увеличен после фиксации транзакции
+                ResponseEntity.ok().eTag(Versions.etag(user.version, tableVersions.stamp(variant, TABLES))).body(user));
+    }
 
+    /**
+     * Частичное изменение логина и почты одним UPDATE. Пароль меняется только через PUT:
+     * вместе с ним отзываются токены пользователя
+     */
+    @PatchMapping("/users/{id}")
+    public ResponseEntity<Void> patchUser(@PathVariable(value = "id") Long userId,
+                                          @RequestHeader(value = "If-Match", required = false) String ifMatch,
+                                          @RequestBody Map<String, Object> patch) throws DataValidationException {
+        Map<String, Object> columns = new LinkedHashMap<>();
+        if (patch.containsKey("login"))
+            columns.put("login", PartialUpdate.text(patch, "login"));
+        if (patch.containsKey("email"))
+            columns.put("email", PartialUpdate.text(patch, "email"));
+        try {
+            Long version = partialUpdate.update(User.class, TableVersions.USERS, userId, columns,
+                    PartialUpdate.version(ifMatch, patch), "Пользователь с таким индексом не найден");
+            // в кэше сессий - прежний логин
+            sessionCache.invalidateUser(userId);
+            tableVersions.bump(TableVersions.USERS);
+            return PartialUpdate.updated(version, tableVersions.stamp(TABLES));
+        } catch (DuplicateKeyException ex) {
+            throw new DataValidationException("Этот пользователь уже есть в базе");
+        } catch (DataIntegrityViolationException ex) {
+            throw new DataValidationException("Неизвестная ошибка");
+        }
     }
 
     @PostMapping("/users")
     public ResponseEntity<Object> createUser(@RequestBody User users) throws DataValidationException {
         try {
             User nu = userRepository.save(users);
+            tableVersions.bump(TableVersions.USERS);
             return new ResponseEntity<Object>(nu, HttpStatus.OK);
         } catch (Exception ex) {
             if (ex.getMessage().contains("users.name_UNIQUE"))
@@ -96,6 +231,7 @@ public class UserController {
                 }
             }
             userRepository.save(u);
+            tableVersions.bump(TableVersions.USERS);
         }
         Map<String, String> response = new HashMap<>();
         response.put("added", String.valueOf(cnt));
@@ -114,15 +250,22 @@ public class UserController {
                 cnt++;
             }
             userRepository.save(u);
+            tableVersions.bump(TableVersions.USERS);
         }
         Map<String, String> response = new HashMap<>();
         response.put("count", String.valueOf(cnt));
         return ResponseEntity.ok(response);
     }
 
+    @Transactional
     @PostMapping("/deleteusers")
-    public ResponseEntity<Object> deleteUsers(@Valid @RequestBody List<User> users) {
-        userRepository.deleteAll(users);
-        return new ResponseEntity<>(HttpStatus.OK);
+    public ResponseEntity<Object> deleteUsers(@RequestBody List<IdRef> users) {
+        List<Long> ids = IdRef.ids(users);
+        Utils.inChunks(ids, userRepository::deleteMuseumLinks);
+        int deleted = Utils.inChunks(ids, userRepository::deleteByIds);
+        sessionCache.invalidateUsers(ids);
+        ids.forEach(signedTokens::revokeUser);
+        tableVersions.bump(TableVersions.USERS);
+        return ResponseEntity.ok(Map.of("deleted", deleted));
     }
 }
\ No newline at end of file
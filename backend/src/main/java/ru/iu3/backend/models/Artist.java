@@ -1,11 +1,15 @@
 
 package ru.iu3.backend.models;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import javax.persistence.*;
 
 @Entity
 @Table(name = "artists")
 @Access(AccessType.FIELD)
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "artists")
 public class Artist {
 
     public Artist() { }
@@ -27,6 +31,10 @@ public class Artist {
     @ManyToOne()
     @JoinColumn(name = "country")
     public Country country;
+
+    @Version
+    @Column(name = "version", nullable = false)
+    public Long version;
 }
 
             
@@ -0,0 +1,36 @@
+package ru.iu3.backend.models;
+
+/**
+ * Модель художника только для чтения. Заполняется одним запросом вместе со страной
+ * и сериализуется в тот же JSON, что и {@link Artist}.
+ */
+public class ArtistView {
+
+    public static class CountryRef {
+        public final Long id;
+        public final String name;
+        public final Long version;
+
+        CountryRef(Long id, String name, Long version) {
+            this.id = id;
+            this.name = name;
+            this.version = version;
+        }
+    }
+
+    public final Long id;
+    public final String name;
+    public final String age;
+    public final CountryRef country;
+    // версия записи - для If-Match или поля version при изменении художника из списка
+    public final Long version;
+
+    public ArtistView(Long id, String name, String age, Long version,
+                      Long countryId, String countryName, Long countryVersion) {
+        this.id = id;
+        this.name = name;
+        this.age = age;
+        this.country = countryId == null ? null : new CountryRef(countryId, countryName, countryVersion);
+        this.version = version;
+    }
+}
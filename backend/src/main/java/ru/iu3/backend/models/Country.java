@@ -2,6 +2,9 @@
 package ru.iu3.backend.models;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import javax.persistence.*;
 
 import java.util.ArrayList;
@@ -10,6 +13,7 @@ import java.util.List;
 @Entity
 @Table(name = "countries")
 @Access(AccessType.FIELD)
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "countries")
 public class Country {
 
     public Country() { }
@@ -25,7 +29,13 @@ public class Country {
 
     @Column(name = "name", nullable = false, unique = true)
     public String name;
-@JsonIgnore
+
+    // Версия записи: PUT и PATCH с If-Match не затрут чужое изменение
+    @Version
+    @Column(name = "version", nullable = false)
+    public Long version;
+    // в кэш второго уровня не попадает: художники страны читаются постранично, коллекция не загружается
+    @JsonIgnore
     @OneToMany(mappedBy = "country")
     public List<Artist> artists = new ArrayList<Artist>();
 
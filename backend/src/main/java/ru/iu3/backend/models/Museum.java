@@ -1,6 +1,10 @@
 package ru.iu3.backend.models;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.OptimisticLock;
+
 import javax.persistence.*;
 
 import java.util.ArrayList;
@@ -11,6 +15,7 @@ import java.util.Set;
 @Entity
 @Table(name = "museums")
 @Access(AccessType.FIELD)
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "museums")
 
 /**
  * Класс - модель музея
@@ -30,14 +35,22 @@ public class Museum {
     @Column(name = "location")
     public String location;
 
-    // Обратная связь: от одного к многим. В данном случае устанавливаем связь между двумя таблицами
+    // Номер версии, растёт с каждым изменением записи
+    @Version
+    @Column(name = "version", nullable = false)
+    public Long version;
+
+    // Обратная связь: от одного к многим. В данном случае устанавливаем связь между двумя таблицами.
+    // Коллекция не кэшируется - её никто не загружает, картины музея читаются постранично
     @JsonIgnore
     @OneToMany(mappedBy = "museumid")
     public List<Painting>
             paintings = new ArrayList<>();
 
-    // Указываем связь "многие-ко-многим". Идём через промежуточную таблицу usermuseums
+    // Указываем связь "многие-ко-многим". Идём через промежуточную таблицу usermuseums.
+    // Привязка пользователя к музею не меняет версию музея
     @JsonIgnore
+    @OptimisticLock(excluded = true)
     @ManyToMany
     @JoinTable(name = "usersmuseums", joinColumns = @JoinColumn(name = "museumid"), inverseJoinColumns = @JoinColumn(name = "userid"))
     public Set<User> users = new HashSet<>();
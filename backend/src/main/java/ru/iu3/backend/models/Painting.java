@@ -1,5 +1,8 @@
 package ru.iu3.backend.models;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import javax.persistence.*;
 
 /**
@@ -8,6 +11,7 @@ import javax.persistence.*;
 @Entity
 @Table(name = "paintings")
 @Access(AccessType.FIELD)
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = "paintings")
 
 /**
  * Класс - модель картин
@@ -37,4 +41,9 @@ public class Painting {
     // Это поле - год написания картины
     @Column(name = "year")
     public Long year;
+
+    // Версия для оптимистической блокировки; null в теле запроса - клиент версию не передал
+    @Version
+    @Column(name = "version", nullable = false)
+    public Long version;
 }
\ No newline at end of file
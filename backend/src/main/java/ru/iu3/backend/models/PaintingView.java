@@ -0,0 +1,43 @@
+package ru.iu3.backend.models;
+
+/**
+ * Модель картины только для чтения. Художник, его страна и музей выбираются
+ * тем же запросом, что и сама картина, поэтому страница из N картин не порождает N дополнительных запросов.
+ * JSON совпадает с JSON сущности {@link Painting}.
+ */
+public class PaintingView {
+
+    public static class MuseumRef {
+        public final Long id;
+        public final String name;
+        public final String location;
+        public final Long version;
+
+        MuseumRef(Long id, String name, String location, Long version) {
+            this.id = id;
+            this.name = name;
+            this.location = location;
+            this.version = version;
+        }
+    }
+
+    public final Long id;
+    public final String name;
+    public final ArtistView artistid;
+    public final MuseumRef museumid;
+    public final Long year;
+    public final Long version;
+
+    public PaintingView(Long id, String name, Long year, Long version,
+                        Long artistId, String artistName, String artistAge, Long artistVersion,
+                        Long countryId, String countryName, Long countryVersion,
+                        Long museumId, String museumName, String museumLocation, Long museumVersion) {
+        this.id = id;
+        this.name = name;
+        this.year = year;
+        this.version = version;
+        this.artistid = artistId == null ? null
+                : new ArtistView(artistId, artistName, artistAge, artistVersion, countryId, countryName, countryVersion);
+        this.museumid = museumId == null ? null : new MuseumRef(museumId, museumName, museumLocation, museumVersion);
+    }
+}
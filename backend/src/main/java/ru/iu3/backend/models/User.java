@@ -1,6 +1,7 @@
 package ru.iu3.backend.models;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import org.hibernate.annotations.OptimisticLock;
 
 import javax.persistence.*;
 import java.time.LocalDateTime;
@@ -38,12 +39,20 @@ public class User {
     @Column(name = "salt")
     public String salt;
 
+    // Вход, выход и истечение сессии меняют токен, но не версию - иначе правка профиля
+    // конфликтовала бы с каждым входом пользователя
+    @OptimisticLock(excluded = true)
     @Column(name = "token")
     public String token;
 
+    @OptimisticLock(excluded = true)
     @Column(name = "activity")
     public LocalDateTime activity;
 
+    @Version
+    @Column(name = "version", nullable = false)
+    public Long version;
+
     @ManyToMany(mappedBy = "users")
     public Set<Museum> museums = new HashSet<>();
 
@@ -1,13 +1,66 @@
 package ru.iu3.backend.repositories;
 
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import ru.iu3.backend.models.Artist;
+import ru.iu3.backend.models.ArtistView;
 import ru.iu3.backend.models.Country;
 import ru.iu3.backend.models.User;
 
+import javax.persistence.QueryHint;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 @Repository
 public interface ArtistRepository extends JpaRepository<Artist, Long> {
+    // результат - в кэше запросов, сама запись - в кэше второго уровня
+    @QueryHints(@QueryHint(name = "org.hibernate.cacheable", value = "true"))
     Optional<Artist> findByName(String name);
+
+    // Художник вместе со страной - без отдельного запроса страны на каждую строку
+    String VIEW = "select new ru.iu3.backend.models.ArtistView(a.id, a.name, a.age, a.version, c.id, c.name, c.version) "
+            + "from Artist a left join a.country c";
+
+    @Query(value = VIEW, countQuery = "select count(a) from Artist a")
+    Page<ArtistView> findAllViews(Pageable pageable);
+
+    // Постраничный вывод по курсору: сортировка по (name, id), без OFFSET и COUNT(*)
+    @Query(VIEW + " order by a.name, a.id")
+    List<ArtistView> findFirstPage(Pageable pageable);
+
+    @Query(VIEW + " where a.name >= :name and (a.name > :name or a.id > :id) order by a.name, a.id")
+    List<ArtistView> findPageAfter(@Param("name") String name, @Param("id") long id, Pageable pageable);
+
+    // Художники одной страны
+    @Query(value = VIEW + " where a.country.id = :country",
+            countQuery = "select count(a) from Artist a where a.country.id = :country")
+    Page<ArtistView> findByCountry(@Param("country") long countryId, Pageable pageable);
+
+    @Query(VIEW + " where a.country.id = :country order by a.name, a.id")
+    List<ArtistView> findCountryFirstPage(@Param("country") long countryId, Pageable pageable);
+
+    @Query(VIEW + " where a.country.id = :country and a.name >= :name and (a.name > :name or a.id > :id) order by a.name, a.id")
+    List<ArtistView> findCountryPageAfter(@Param("country") long countryId,
+                                          @Param("name") String name, @Param("id") long id, Pageable pageable);
+
+    // Выгрузка всей таблицы: строки читаются порциями по 500, а не целиком в память
+    @QueryHints(@QueryHint(name = "org.hibernate.fetchSize", value = "500"))
+    @Query(VIEW + " order by a.id")
+    Stream<ArtistView> streamAllViews();
+
+    @Modifying
+    @Query("delete from Artist a where a.id in :ids")
+    int deleteByIds(@Param("ids") Collection<Long> ids);
+
+    // Художники удаляемых стран остаются, страна у них сбрасывается
+    @Modifying
+    @Query("update Artist a set a.country = null where a.country.id in :ids")
+    int clearCountries(@Param("ids") Collection<Long> countryIds);
 }
\ No newline at end of file
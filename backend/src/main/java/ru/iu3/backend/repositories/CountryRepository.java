@@ -2,13 +2,39 @@
 package ru.iu3.backend.repositories;
 
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import ru.iu3.backend.models.Country;
 import ru.iu3.backend.models.Artist;
+import javax.persistence.QueryHint;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 @Repository
 public interface CountryRepository  extends JpaRepository<Country, Long>
 {
+    @QueryHints(@QueryHint(name = "org.hibernate.cacheable", value = "true"))
     Optional<Country> findByName(String name);
+
+    // Постраничный вывод по курсору: сортировка по (name, id), без OFFSET и COUNT(*)
+    @Query("select c from Country c order by c.name, c.id")
+    List<Country> findFirstPage(Pageable pageable);
+
+    @Query("select c from Country c where c.name >= :name and (c.name > :name or c.id > :id) order by c.name, c.id")
+    List<Country> findPageAfter(@Param("name") String name, @Param("id") long id, Pageable pageable);
+
+    // Выгрузка всей таблицы: строки читаются порциями по 500, а не целиком в память
+    @QueryHints(@QueryHint(name = "org.hibernate.fetchSize", value = "500"))
+    @Query("select c from Country c order by c.id")
+    Stream<Country> streamAll();
+
+    @Modifying
+    @Query("delete from Country c where c.id in :ids")
+    int deleteByIds(@Param("ids") Collection<Long> ids);
 }
@@ -1,11 +1,44 @@
 package ru.iu3.backend.repositories;
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import ru.iu3.backend.models.Museum;
 import ru.iu3.backend.models.Country;
+import javax.persistence.QueryHint;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 @Repository
 public interface MuseumRepository extends JpaRepository<Museum, Long> {
+    @QueryHints(@QueryHint(name = "org.hibernate.cacheable", value = "true"))
     Optional<Museum> findByName(String name);
+
+    // Постраничный вывод по курсору: сортировка по (name, id), без OFFSET и COUNT(*)
+    @Query("select m from Museum m order by m.name, m.id")
+    List<Museum> findFirstPage(Pageable pageable);
+
+    @Query("select m from Museum m where m.name >= :name and (m.name > :name or m.id > :id) order by m.name, m.id")
+    List<Museum> findPageAfter(@Param("name") String name, @Param("id") long id, Pageable pageable);
+
+    // Выгрузка всей таблицы: строки читаются порциями по 500, а не целиком в память
+    @QueryHints(@QueryHint(name = "org.hibernate.fetchSize", value = "500"))
+    @Query("select m from Museum m order by m.id")
+    Stream<Museum> streamAll();
+
+    @Modifying
+    @Query("delete from Museum m where m.id in :ids")
+    int deleteByIds(@Param("ids") Collection<Long> ids);
+
+    // Связи с пользователями (таблица usersmuseums) удаляются вместе с музеем. Без списка затронутых
+    // таблиц (native.spaces) Hibernate считает, что SQL мог изменить что угодно, и очищает все области кэша
+    @Modifying
+    @QueryHints(@QueryHint(name = "org.hibernate.query.native.spaces", value = "usersmuseums"))
+    @Query(value = "delete from usersmuseums where museumid in (:ids)", nativeQuery = true)
+    int deleteUserLinks(@Param("ids") Collection<Long> museumIds);
 }
\ No newline at end of file
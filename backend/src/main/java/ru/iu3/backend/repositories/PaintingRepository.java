@@ -1,9 +1,74 @@
 package ru.iu3.backend.repositories;
 
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import ru.iu3.backend.models.Painting;
+import ru.iu3.backend.models.PaintingView;
+
+import javax.persistence.QueryHint;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
 
 @Repository
 public interface PaintingRepository extends JpaRepository<Painting, Long> {
-}
\ No newline at end of file
+
+    // Картина вместе с художником, страной художника и музеем - одной строкой выборки
+    String VIEW = "select new ru.iu3.backend.models.PaintingView(p.id, p.name, p.year, p.version, "
+            + "a.id, a.name, a.age, a.version, c.id, c.name, c.version, m.id, m.name, m.location, m.version) "
+            + "from Painting p left join p.artistid a left join a.country c left join p.museumid m";
+
+    @Query(value = VIEW, countQuery = "select count(p) from Painting p")
+    Page<PaintingView> findAllViews(Pageable pageable);
+
+    // Постраничный вывод по курсору: сортировка по (name, id), без OFFSET и COUNT(*)
+    // Условие "после (name, id)" записано через name >= :name - так по индексу читается диапазон, а не вся таблица
+    @Query(VIEW + " order by p.name, p.id")
+    List<PaintingView> findFirstPage(Pageable pageable);
+
+    @Query(VIEW + " where p.name >= :name and (p.name > :name or p.id > :id) order by p.name, p.id")
+    List<PaintingView> findPageAfter(@Param("name") String name, @Param("id") long id, Pageable pageable);
+
+    // Продолжение после картины без названия: при сортировке по возрастанию NULL идут первыми (MySQL, H2)
+    @Query(VIEW + " where p.name is not null or p.id > :id order by p.name, p.id")
+    List<PaintingView> findPageAfterUnnamed(@Param("id") long id, Pageable pageable);
+
+    // Картины одного музея: страница с сортировкой или продолжение по курсору (name, id)
+    @Query(value = VIEW + " where p.museumid.id = :museum",
+            countQuery = "select count(p) from Painting p where p.museumid.id = :museum")
+    Page<PaintingView> findByMuseum(@Param("museum") long museumId, Pageable pageable);
+
+    @Query(VIEW + " where p.museumid.id = :museum order by p.name, p.id")
+    List<PaintingView> findMuseumFirstPage(@Param("museum") long museumId, Pageable pageable);
+
+    @Query(VIEW + " where p.museumid.id = :museum and p.name >= :name and (p.name > :name or p.id > :id) order by p.name, p.id")
+    List<PaintingView> findMuseumPageAfter(@Param("museum") long museumId,
+                                           @Param("name") String name, @Param("id") long id, Pageable pageable);
+
+    @Query(VIEW + " where p.museumid.id = :museum and (p.name is not null or p.id > :id) order by p.name, p.id")
+    List<PaintingView> findMuseumPageAfterUnnamed(@Param("museum") long museumId, @Param("id") long id, Pageable pageable);
+
+    // Выгрузка всей таблицы: строки читаются порциями по 500, а не целиком в память
+    @QueryHints(@QueryHint(name = "org.hibernate.fetchSize", value = "500"))
+    @Query(VIEW + " order by p.id")
+    Stream<PaintingView> streamAllViews();
+
+    @Modifying
+    @Query("delete from Painting p where p.id in :ids")
+    int deleteByIds(@Param("ids") Collection<Long> ids);
+
+    // Картины удаляемых художников и музеев остаются в каталоге, но без ссылки
+    @Modifying
+    @Query("update Painting p set p.artistid = null where p.artistid.id in :ids")
+    int clearArtists(@Param("ids") Collection<Long> artistIds);
+
+    @Modifying
+    @Query("update Painting p set p.museumid = null where p.museumid.id in :ids")
+    int clearMuseums(@Param("ids") Collection<Long> museumIds);
+}
@@ -2,14 +2,46 @@
 package ru.iu3.backend.repositories;
 
 
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import ru.iu3.backend.models.User;
 
+import javax.persistence.QueryHint;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 @Repository
 public interface UserRepository  extends JpaRepository<User, Long>
 {
     Optional<User> findByToken(String token); // аутентификация пользователя
     Optional<User> findByLogin(String login); // поиск пользователя при входе
+
+    // Постраничный вывод по курсору: сортировка по (login, id), без OFFSET и COUNT(*)
+    @Query("select u from User u order by u.login, u.id")
+    List<User> findFirstPage(Pageable pageable);
+
+    @Query("select u from User u where u.login >= :login and (u.login > :login or u.id > :id) order by u.login, u.id")
+    List<User> findPageAfter(@Param("login") String login, @Param("id") long id, Pageable pageable);
+
+    // Выгрузка всей таблицы: строки читаются порциями по 500, а не целиком в память. Музеи выбираются
+    // тем же запросом (строки одного пользователя идут подряд благодаря order by u.id), а не отдельным на каждого
+    @QueryHints(@QueryHint(name = "org.hibernate.fetchSize", value = "500"))
+    @Query("select u from User u left join fetch u.museums order by u.id")
+    Stream<User> streamAll();
+
+    @Modifying
+    @Query("delete from User u where u.id in :ids")
+    int deleteByIds(@Param("ids") Collection<Long> ids);
+
+    // затронута только usersmuseums - остальные области кэша второго уровня не сбрасываются
+    @Modifying
+    @QueryHints(@QueryHint(name = "org.hibernate.query.native.spaces", value = "usersmuseums"))
+    @Query(value = "delete from usersmuseums where userid in (:ids)", nativeQuery = true)
+    int deleteMuseumLinks(@Param("ids") Collection<Long> userIds);
 }
@@ -0,0 +1,98 @@
+package ru.iu3.backend.tools;
+
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.List;
+
+/**
+ * Двоичные форматы ответов по заголовку Accept: application/cbor и application/x-jackson-smile
+ * (в тех же форматах принимаются и тела запросов). Модели те же, что в JSON, и Jackson настроен так же -
+ * модули, @JsonComponent, spring.jackson.*; меняется только кодирование.
+ * Конвертеры Spring MVC по умолчанию для этих форматов собирают свой ObjectMapper без PageSerializer,
+ * поэтому здесь они заменяются.
+ * Ответы в разных форматах - разные представления, и ETag у них разный (см. {@link #variant()}).
+ */
+@Configuration
+public class BinaryFormats implements WebMvcConfigurer, HandlerInterceptor {
+
+    private static final MediaType CBOR = MediaType.APPLICATION_CBOR;
+    private static final MediaType SMILE = new MediaType("application", "x-jackson-smile");
+
+    @Bean
+    public MappingJackson2CborHttpMessageConverter cborHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+        return new MappingJackson2CborHttpMessageConverter(builder.factory(new CBORFactory()).build());
+    }
+
+    @Bean
+    public MappingJackson2SmileHttpMessageConverter smileHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+        return new MappingJackson2SmileHttpMessageConverter(builder.factory(new SmileFactory()).build());
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(this).addPathPatterns("/api/**");
+    }
+
+    // Формат ответа зависит от Accept, и кэш не должен отдать JSON тому, кто просил CBOR.
+    // Асинхронный запрос проходит здесь дважды
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (!response.getHeaders(HttpHeaders.VARY).contains(HttpHeaders.ACCEPT))
+            response.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT);
+        return true;
+    }
+
+    /**
+     * Формат ответа на текущий запрос - часть ETag: иначе 304 на If-None-Match, полученный с JSON,
+     * подтвердил бы клиенту закэшированный JSON вместо CBOR
+     * @return - "cbor" или "smile"; для JSON и вне запроса - пустая строка
+     */
+    public static String variant() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (!(attributes instanceof ServletRequestAttributes))
+            return "";
+        return variant(((ServletRequestAttributes) attributes).getRequest().getHeader(HttpHeaders.ACCEPT));
+    }
+
+    // тот же выбор, что у Spring MVC: первый по точности и q тип Accept, который можно выдать; JSON - первым
+    static String variant(String accept) {
+        if (accept == null || accept.isEmpty())
+            return "";
+        List<MediaType> types;
+        try {
+            types = MediaType.parseMediaTypes(accept);
+        }
+        catch (InvalidMediaTypeException ex) {
+            return "";
+        }
+        MediaType.sortBySpecificityAndQuality(types);
+        for (MediaType t : types) {
+            if (t.getQualityValue() == 0)
+                continue;
+            if (t.includes(MediaType.APPLICATION_JSON))
+                return "";
+            if (t.includes(CBOR))
+                return "cbor";
+            if (t.includes(SMILE))
+                return "smile";
+        }
+        return "";
+    }
+}
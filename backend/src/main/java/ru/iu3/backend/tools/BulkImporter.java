@@ -0,0 +1,377 @@
+package ru.iu3.backend.tools;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Component;
+import ru.iu3.backend.models.Artist;
+import ru.iu3.backend.models.Painting;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Массовая загрузка художников и картин.
+ * Тело запроса (JSON-массив или CSV с заголовком) читается потоком, строки собираются в порции по CHUNK_SIZE.
+ * Для каждой порции имена стран, художников и музеев разрешаются в ID одним запросом на таблицу,
+ * найденные ID запоминаются на всё время загрузки, а строки вставляются пакетом JDBC.
+ */
+@Component
+public class BulkImporter {
+
+    public static final String CSV = "text/csv";
+
+    private static final int CHUNK_SIZE = 500;
+
+    // Больше ошибок не запоминаем, только считаем
+    private static final int MAX_ERRORS = 1000;
+
+    /**
+     * Ошибка в конкретной строке входных данных (нумерация с единицы, без заголовка CSV)
+     */
+    public static class RowError {
+        public final long row;
+        public final String error;
+
+        RowError(long row, String error) {
+            this.row = row;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Итог загрузки
+     */
+    public static class Report {
+        public long imported;
+        public long failed;
+        public final List<RowError> errors = new ArrayList<>();
+
+        void fail(long row, String error) {
+            failed++;
+            if (errors.size() < MAX_ERRORS)
+                errors.add(new RowError(row, error));
+        }
+    }
+
+    /**
+     * Описание таблицы, в которую идёт загрузка
+     */
+    private static class Target {
+        final String insert;
+        // для каждого параметра-ссылки: таблица, в которой ищется имя, и сообщение об ошибке
+        final Map<Integer, String> refTables;
+        final Map<Integer, String> refErrors;
+        final String duplicateError;
+
+        Target(String insert, Map<Integer, String> refTables, Map<Integer, String> refErrors, String duplicateError) {
+            this.insert = insert;
+            this.refTables = refTables;
+            this.refErrors = refErrors;
+            this.duplicateError = duplicateError;
+        }
+    }
+
+    private static final Target ARTISTS = new Target(
+            "INSERT INTO artists (name, age, country) VALUES (?, ?, ?)",
+            Map.of(2, "countries"),
+            Map.of(2, "Страна с таким именем не найдена"),
+            "Этот художник уже есть в базе");
+
+    private static final Target PAINTINGS = new Target(
+            "INSERT INTO paintings (name, artistid, museumid, year) VALUES (?, ?, ?, ?)",
+            Map.of(1, "artists", 2, "museums"),
+            Map.of(1, "Художник с таким именем не найден", 2, "Музей с таким именем не найден"),
+            "Эта картина уже есть в базе");
+
+    /**
+     * Строка входных данных: параметры INSERT, в позициях ссылок пока стоят имена
+     */
+    private static class Row {
+        final long number;
+        final Object[] values;
+
+        Row(long number, Object[] values) {
+            this.number = number;
+            this.values = values;
+        }
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+
+    private final ObjectMapper objectMapper;
+
+    public BulkImporter(JdbcTemplate jdbcTemplate, ObjectMapper objectMapper) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.namedJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Загрузка художников. JSON - как в POST /artists, CSV - колонки name, age, country
+     */
+    public Report importArtists(InputStream in, String contentType) throws IOException {
+        Load load = new Load(ARTISTS);
+        if (isCsv(contentType)) {
+            readCsv(in, load, new String[] { "name", "age", "country" },
+                    f -> new Object[] { f[0], f[1], f[2] });
+        }
+        else {
+            readJson(in, load, Artist.class,
+                    a -> new Object[] { a.name, a.age, a.country == null ? null : a.country.name });
+        }
+        return load.finish();
+    }
+
+    /**
+     * Загрузка картин. JSON - как в POST /paintings, CSV - колонки name, artist, museum, year
+     */
+    public Report importPaintings(InputStream in, String contentType) throws IOException {
+        Load load = new Load(PAINTINGS);
+        if (isCsv(contentType)) {
+            readCsv(in, load, new String[] { "name", "artist", "museum", "year" },
+                    f -> new Object[] { f[0], f[1], f[2], f[3] == null || f[3].isEmpty() ? null : Long.valueOf(f[3]) });
+        }
+        else {
+            readJson(in, load, Painting.class,
+                    p -> new Object[] { p.name,
+                            p.artistid == null ? null : p.artistid.name,
+                            p.museumid == null ? null : p.museumid.name,
+                            p.year });
+        }
+        return load.finish();
+    }
+
+    private static boolean isCsv(String contentType) {
+        return contentType != null && contentType.toLowerCase(Locale.ROOT).startsWith(CSV);
+    }
+
+    private interface RowMapper<T> {
+        Object[] map(T source);
+    }
+
+    private <T> void readJson(InputStream in, Load load, Class<T> type, RowMapper<T> mapper) throws IOException {
+        long number = 0;
+        try (MappingIterator<T> it = objectMapper.readerFor(type).readValues(in)) {
+            while (it.hasNextValue()) {
+                T value = it.nextValue();
+                number++;
+                load.add(new Row(number, mapper.map(value)));
+            }
+        }
+        catch (JsonProcessingException ex) {
+            // после синтаксической ошибки продолжить разбор массива нельзя
+            load.report.fail(number + 1, "Некорректный JSON: " + ex.getOriginalMessage());
+        }
+    }
+
+    private void readCsv(InputStream in, Load load, String[] columns, RowMapper<String[]> mapper) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        String header = reader.readLine();
+        if (header == null)
+            return;
+        List<String> names = parseCsvLine(header);
+        int[] index = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            index[i] = names.indexOf(columns[i]);
+            if (index[i] < 0) {
+                load.report.fail(0, "Нет колонки " + columns[i]);
+                return;
+            }
+        }
+        long number = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.isEmpty())
+                continue;
+            number++;
+            List<String> fields = parseCsvLine(line);
+            String[] f = new String[columns.length];
+            for (int i = 0; i < columns.length; i++)
+                f[i] = index[i] < fields.size() ? fields.get(index[i]) : null;
+            try {
+                load.add(new Row(number, mapper.map(f)));
+            }
+            catch (NumberFormatException ex) {
+                load.report.fail(number, "Некорректное число: " + ex.getMessage());
+            }
+        }
+    }
+
+    // Разбор строки CSV: разделитель - запятая, значения могут быть в кавычках, "" внутри кавычек - сама кавычка
+    static List<String> parseCsvLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char ch = line.charAt(i);
+            if (quoted) {
+                if (ch == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        sb.append('"');
+                        i++;
+                    }
+                    else
+                        quoted = false;
+                }
+                else
+                    sb.append(ch);
+            }
+            else if (ch == '"')
+                quoted = true;
+            else if (ch == ',') {
+                fields.add(sb.toString().trim());
+                sb.setLength(0);
+            }
+            else
+                sb.append(ch);
+        }
+        fields.add(sb.toString().trim());
+        return fields;
+    }
+
+    /**
+     * Состояние одной загрузки: текущая порция, найденные ID и итог
+     */
+    private class Load {
+        final Target target;
+        final Report report = new Report();
+        final List<Row> chunk = new ArrayList<>(CHUNK_SIZE);
+        // имя (в нижнем регистре) -> ID или null, если такого имени нет; отдельная карта на каждую таблицу
+        final Map<String, Map<String, Long>> ids = new HashMap<>();
+
+        Load(Target target) {
+            this.target = target;
+        }
+
+        void add(Row row) {
+            chunk.add(row);
+            if (chunk.size() >= CHUNK_SIZE)
+                flush();
+        }
+
+        Report finish() {
+            flush();
+            report.errors.sort(Comparator.comparingLong(e -> e.row));
+            return report;
+        }
+
+        void flush() {
+            if (chunk.isEmpty())
+                return;
+            resolve();
+            List<Row> ready = new ArrayList<>(chunk.size());
+            for (Row row : chunk) {
+                String error = substitute(row);
+                if (error == null)
+                    ready.add(row);
+                else
+                    report.fail(row.number, error);
+            }
+            chunk.clear();
+            if (!ready.isEmpty())
+                insert(ready);
+        }
+
+        // Одним запросом на таблицу находим ID всех ещё не встречавшихся имён порции
+        void resolve() {
+            for (Map.Entry<Integer, String> ref : target.refTables.entrySet()) {
+                Map<String, Long> known = ids.computeIfAbsent(ref.getValue(), t -> new HashMap<>());
+                Set<String> missing = new HashSet<>();
+                for (Row row : chunk) {
+                    Object name = row.values[ref.getKey()];
+                    if (name != null && !known.containsKey(key(name)))
+                        missing.add(name.toString());
+                }
+                if (missing.isEmpty())
+                    continue;
+                namedJdbcTemplate.query("SELECT id, name FROM " + ref.getValue() + " WHERE name IN (:names)",
+                        Map.of("names", missing),
+                        rs -> { known.put(key(rs.getString(2)), rs.getLong(1)); });
+                for (String name : missing)
+                    known.putIfAbsent(key(name), null);
+            }
+        }
+
+        String substitute(Row row) {
+            for (Map.Entry<Integer, String> ref : target.refTables.entrySet()) {
+                Object name = row.values[ref.getKey()];
+                Long id = name == null ? null : ids.get(ref.getValue()).get(key(name));
+                if (id == null)
+                    return target.refErrors.get(ref.getKey());
+                row.values[ref.getKey()] = id;
+            }
+            return null;
+        }
+
+        void insert(List<Row> rows) {
+            jdbcTemplate.execute((ConnectionCallback<Void>) con -> {
+                boolean autoCommit = con.getAutoCommit();
+                try {
+                    con.setAutoCommit(false);
+                    try (PreparedStatement ps = con.prepareStatement(target.insert)) {
+                        for (Row row : rows) {
+                            bind(ps, row);
+                            ps.addBatch();
+                        }
+                        ps.executeBatch();
+                        con.commit();
+                        report.imported += rows.size();
+                    }
+                    catch (BatchUpdateException ex) {
+                        // какая именно строка виновата, драйвер сообщает не всегда - повторяем порцию построчно
+                        con.rollback();
+                        con.setAutoCommit(true);
+                        insertOneByOne(con, rows);
+                    }
+                }
+                finally {
+                    con.setAutoCommit(autoCommit);
+                }
+                return null;
+            });
+        }
+
+        void insertOneByOne(Connection con, List<Row> rows) throws SQLException {
+            try (PreparedStatement ps = con.prepareStatement(target.insert)) {
+                for (Row row : rows) {
+                    try {
+                        bind(ps, row);
+                        ps.executeUpdate();
+                        report.imported++;
+                    }
+                    catch (SQLException ex) {
+                        String message = String.valueOf(ex.getMessage());
+                        String lower = message.toLowerCase(Locale.ROOT);
+                        if (lower.contains("duplicate") || lower.contains("unique"))
+                            report.fail(row.number, target.duplicateError);
+                        else
+                            report.fail(row.number, message);
+                    }
+                }
+            }
+        }
+
+        void bind(PreparedStatement ps, Row row) throws SQLException {
+            for (int i = 0; i < row.values.length; i++)
+                ps.setObject(i + 1, row.values[i]);
+        }
+    }
+
+    private static String key(Object name) {
+        return name.toString().toLowerCase(Locale.ROOT);
+    }
+}
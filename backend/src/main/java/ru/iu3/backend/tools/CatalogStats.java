@@ -0,0 +1,261 @@
+package ru.iu3.backend.tools;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.iu3.backend.models.Artist;
+import ru.iu3.backend.models.Country;
+import ru.iu3.backend.models.Museum;
+import ru.iu3.backend.models.Painting;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Статистика каталога в памяти: картины по музеям, художникам и десятилетиям, художники по странам.
+ * Строится запросами GROUP BY при запуске и раз в private.stats-reconcile-interval миллисекунд,
+ * а между пересчётами меняется контроллерами при добавлении, изменении и удалении записей.
+ * Массовые операции, после которых неизвестно, что именно изменилось, помечают статистику устаревшей -
+ * тогда она пересчитывается при следующем чтении.
+ */
+@Component
+public class CatalogStats {
+
+    /**
+     * Число записей, относящихся к музею, художнику или стране
+     */
+    public static class Entry {
+        public final long id;
+        public final String name;
+        public final long count;
+
+        Entry(long id, String name, long count) {
+            this.id = id;
+            this.name = name;
+            this.count = count;
+        }
+    }
+
+    /**
+     * Число картин, написанных в десятилетие, которое начинается с года decade
+     */
+    public static class Decade {
+        public final long decade;
+        public final long count;
+
+        Decade(long decade, long count) {
+            this.decade = decade;
+            this.count = count;
+        }
+    }
+
+    /**
+     * То, от чего зависит вклад картины в статистику; запоминается до изменения картины
+     */
+    public static class PaintingKey {
+        final Long artist;
+        final Long museum;
+        final Long year;
+
+        PaintingKey(Painting p) {
+            this.artist = p.artistid == null ? null : p.artistid.id;
+            this.museum = p.museumid == null ? null : p.museumid.id;
+            this.year = p.year;
+        }
+    }
+
+    /**
+     * Все счётчики. При пересчёте создаётся новый набор и подменяет старый целиком
+     */
+    private static class Counts {
+        final Map<Long, Long> paintingsByMuseum = new ConcurrentHashMap<>();
+        final Map<Long, Long> paintingsByArtist = new ConcurrentHashMap<>();
+        final Map<Long, Long> paintingsByDecade = new ConcurrentHashMap<>();
+        final Map<Long, Long> artistsByCountry = new ConcurrentHashMap<>();
+        final Map<Long, String> museums = new ConcurrentHashMap<>();
+        final Map<Long, String> artists = new ConcurrentHashMap<>();
+        final Map<Long, String> countries = new ConcurrentHashMap<>();
+        final AtomicLong paintings = new AtomicLong();
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private volatile Counts counts = new Counts();
+
+    private volatile boolean stale = true;
+
+    // не synchronized: пересчёт ждёт базу, а виртуальный поток под монитором закрепляет за собой носитель
+    private final ReentrantLock rebuilding = new ReentrantLock();
+
+    public CatalogStats(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Полный пересчёт. Изменения, пришедшие во время пересчёта, могут учесться дважды или потеряться -
+     * это исправит следующий пересчёт
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(initialDelayString = "${private.stats-reconcile-interval}", fixedDelayString = "${private.stats-reconcile-interval}")
+    public void rebuild() {
+        rebuilding.lock();
+        try {
+            rebuildLocked();
+        }
+        finally {
+            rebuilding.unlock();
+        }
+    }
+
+    private void rebuildLocked() {
+        stale = false;
+        Counts c = new Counts();
+        jdbcTemplate.query("SELECT id, name FROM museums", rs -> { c.museums.put(rs.getLong(1), rs.getString(2)); });
+        jdbcTemplate.query("SELECT id, name FROM artists", rs -> { c.artists.put(rs.getLong(1), rs.getString(2)); });
+        jdbcTemplate.query("SELECT id, name FROM countries", rs -> { c.countries.put(rs.getLong(1), rs.getString(2)); });
+        group("SELECT museumid, COUNT(*) FROM paintings WHERE museumid IS NOT NULL GROUP BY museumid",
+                c.paintingsByMuseum);
+        group("SELECT artistid, COUNT(*) FROM paintings WHERE artistid IS NOT NULL GROUP BY artistid",
+                c.paintingsByArtist);
+        group("SELECT country, COUNT(*) FROM artists WHERE country IS NOT NULL GROUP BY country",
+                c.artistsByCountry);
+        // по годам, а не по десятилетиям: деление в SQL у MySQL и H2 округляет по-разному
+        jdbcTemplate.query("SELECT year, COUNT(*) FROM paintings WHERE year IS NOT NULL GROUP BY year",
+                rs -> { add(c.paintingsByDecade, decade(rs.getLong(1)), rs.getLong(2)); });
+        c.paintings.set(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM paintings", Long.class));
+        counts = c;
+    }
+
+    private void group(String sql, Map<Long, Long> into) {
+        jdbcTemplate.query(sql, rs -> { into.put(rs.getLong(1), rs.getLong(2)); });
+    }
+
+    /**
+     * Отмечает, что статистика устарела (после массовых удалений и загрузок)
+     */
+    public void invalidate() {
+        Utils.afterCommit(() -> stale = true);
+    }
+
+    private Counts current() {
+        if (stale) {
+            rebuilding.lock();
+            try {
+                if (stale)
+                    rebuildLocked();
+            }
+            finally {
+                rebuilding.unlock();
+            }
+        }
+        return counts;
+    }
+
+    public static PaintingKey key(Painting p) {
+        return new PaintingKey(p);
+    }
+
+    /**
+     * @param before - картина до изменения, null - новая картина
+     * @param after - картина после изменения
+     */
+    public void paintingChanged(PaintingKey before, Painting after) {
+        PaintingKey now = new PaintingKey(after);
+        Utils.afterCommit(() -> {
+            Counts c = counts;
+            if (before == null)
+                c.paintings.incrementAndGet();
+            else
+                move(c, before, -1);
+            move(c, now, 1);
+        });
+    }
+
+    private static void move(Counts c, PaintingKey k, long delta) {
+        if (k.museum != null)
+            add(c.paintingsByMuseum, k.museum, delta);
+        if (k.artist != null)
+            add(c.paintingsByArtist, k.artist, delta);
+        if (k.year != null)
+            add(c.paintingsByDecade, decade(k.year), delta);
+    }
+
+    /**
+     * @param oldCountry - ID прежней страны художника; для нового художника и художника без страны - null
+     */
+    public void artistChanged(Long oldCountry, Artist after) {
+        Long country = after.country == null ? null : after.country.id;
+        Utils.afterCommit(() -> {
+            Counts c = counts;
+            c.artists.put(after.id, after.name);
+            if (oldCountry != null)
+                add(c.artistsByCountry, oldCountry, -1);
+            if (country != null)
+                add(c.artistsByCountry, country, 1);
+        });
+    }
+
+    public void museumChanged(Museum m) {
+        Utils.afterCommit(() -> counts.museums.put(m.id, m.name));
+    }
+
+    public void countryChanged(Country country) {
+        Utils.afterCommit(() -> counts.countries.put(country.id, country.name));
+    }
+
+    private static void add(Map<Long, Long> map, long key, long delta) {
+        map.merge(key, delta, (a, b) -> a + b == 0 ? null : a + b);
+    }
+
+    private static long decade(long year) {
+        return Math.floorDiv(year, 10) * 10;
+    }
+
+    /**
+     * Общее число записей каждого вида
+     */
+    public Map<String, Long> totals() {
+        Counts c = current();
+        Map<String, Long> result = new LinkedHashMap<>();
+        result.put("paintings", c.paintings.get());
+        result.put("artists", (long) c.artists.size());
+        result.put("museums", (long) c.museums.size());
+        result.put("countries", (long) c.countries.size());
+        return result;
+    }
+
+    public List<Entry> paintingsByMuseum() {
+        Counts c = current();
+        return entries(c.museums, c.paintingsByMuseum);
+    }
+
+    public List<Entry> paintingsByArtist() {
+        Counts c = current();
+        return entries(c.artists, c.paintingsByArtist);
+    }
+
+    public List<Entry> artistsByCountry() {
+        Counts c = current();
+        return entries(c.countries, c.artistsByCountry);
+    }
+
+    public List<Decade> paintingsByDecade() {
+        List<Decade> result = new ArrayList<>();
+        current().paintingsByDecade.forEach((d, n) -> result.add(new Decade(d, n)));
+        result.sort(Comparator.comparingLong(d -> d.decade));
+        return result;
+    }
+
+    // Все записи, в том числе без картин (художников), по алфавиту
+    private static List<Entry> entries(Map<Long, String> names, Map<Long, Long> counts) {
+        List<Entry> result = new ArrayList<>(names.size());
+        names.forEach((id, name) -> result.add(new Entry(id, name, counts.getOrDefault(id, 0L))));
+        result.sort(Comparator.comparing((Entry e) -> e.name, Comparator.nullsLast(String.CASE_INSENSITIVE_ORDER))
+                .thenComparingLong(e -> e.id));
+        return result;
+    }
+}
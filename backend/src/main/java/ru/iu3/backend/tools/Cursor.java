@@ -0,0 +1,38 @@
+package ru.iu3.backend.tools;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Курсор постраничного вывода: значение ключа сортировки и ID последней выданной записи.
+ * Клиенту передаётся в непрозрачном виде (base64url). Ключ может быть null (картина без названия):
+ * такой курсор кодируется без разделителя, чтобы не смешаться с пустой строкой.
+ */
+public class Cursor {
+
+    public final String key;
+    public final long id;
+
+    public Cursor(String key, long id) {
+        this.key = key;
+        this.id = id;
+    }
+
+    public String encode() {
+        String raw = key == null ? Long.toString(id) : id + ":" + key;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static Cursor decode(String cursor) throws DataValidationException {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int sep = raw.indexOf(':');
+            if (sep < 0)
+                return new Cursor(null, Long.parseLong(raw));
+            return new Cursor(raw.substring(sep + 1), Long.parseLong(raw.substring(0, sep)));
+        }
+        catch (IllegalArgumentException | IndexOutOfBoundsException ex) {
+            throw new DataValidationException("Некорректный курсор");
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package ru.iu3.backend.tools;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import javax.annotation.PreDestroy;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Пул для чтения из базы вне потоков Tomcat. Потоков столько же, сколько соединений в пуле Hikari,
+ * поэтому задача, получившая поток, не ждёт соединения. Очередь ограничена: когда она заполнена,
+ * запрос сразу получает 503, а не висит до таймаута.
+ * Каждая задача выполняется в одной читающей транзакции - ленивые коллекции, нужные ответу,
+ * нужно загрузить внутри задачи, сериализация идёт уже после её завершения.
+ * Запись, которой завершается асинхронный запрос (вход, смена пароля после хэширования), тоже идёт
+ * через этот пул (submitWrite) - в потоке PasswordHasher ей пришлось бы ждать свободного соединения.
+ * При private.db-async = false задачи выполняются в вызывающем потоке, как раньше.
+ */
+@Component
+public class DbExecutor {
+
+    /**
+     * Счётчики одного эндпойнта
+     */
+    private static class Endpoint {
+        final AtomicInteger queued = new AtomicInteger();
+        final Timer wait;
+        final Timer run;
+        final Counter rejected;
+
+        Endpoint(String name, MeterRegistry meterRegistry) {
+            Gauge.builder("db.executor.queued", queued, AtomicInteger::get)
+                    .tag("endpoint", name)
+                    .register(meterRegistry);
+            this.wait = Timer.builder("db.executor.wait").tag("endpoint", name)
+                    .description("Время в очереди до получения потока")
+                    .publishPercentiles(0.5, 0.95, 0.99).register(meterRegistry);
+            this.run = Timer.builder("db.executor.run").tag("endpoint", name)
+                    .publishPercentiles(0.5, 0.95, 0.99).register(meterRegistry);
+            this.rejected = Counter.builder("db.executor.rejected").tag("endpoint", name)
+                    .register(meterRegistry);
+        }
+    }
+
+    private final boolean async;
+
+    private final ThreadPoolExecutor executor;
+
+    private final TransactionTemplate readOnly;
+
+    private final TransactionTemplate readWrite;
+
+    private final MeterRegistry meterRegistry;
+
+    private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+    public DbExecutor(MeterRegistry meterRegistry, PlatformTransactionManager transactionManager,
+                      @Value("${private.db-async}") boolean async,
+                      @Value("${private.db-threads}") int threads,
+                      @Value("${private.db-queue-size}") int queueSize) {
+        this.async = async;
+        this.meterRegistry = meterRegistry;
+        this.readOnly = new TransactionTemplate(transactionManager);
+        this.readOnly.setReadOnly(true);
+        this.readWrite = new TransactionTemplate(transactionManager);
+        AtomicInteger n = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize),
+                r -> {
+                    Thread t = new Thread(r, "db-executor-" + n.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+
+        Gauge.builder("db.executor.queue", executor, e -> e.getQueue().size())
+                .register(meterRegistry);
+        Gauge.builder("db.executor.active", executor, ThreadPoolExecutor::getActiveCount)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Выполняет чтение из базы в пуле
+     * @param endpoint - имя эндпойнта для метрик
+     * @param task - чтение; его исключение (например, DataValidationException) становится результатом запроса
+     * @throws ResponseStatusException - 503, если очередь заполнена
+     */
+    public <T> CompletableFuture<T> submit(String endpoint, Callable<T> task) {
+        return submit(endpoint, null, readOnly, task);
+    }
+
+    /**
+     * То же с таблицами, из которых читает задача: после записи в другие таблицы она может читать из реплики
+     * @param tables - таблицы ответа, те же, что в его ETag
+     */
+    public <T> CompletableFuture<T> submit(String endpoint, String[] tables, Callable<T> task) {
+        return submit(endpoint, tables, readOnly, task);
+    }
+
+    /**
+     * Выполняет запись в базу в пуле, в одной транзакции
+     * @throws ResponseStatusException - 503, если очередь заполнена
+     */
+    public <T> CompletableFuture<T> submitWrite(String endpoint, Callable<T> task) {
+        return submit(endpoint, null, readWrite, task);
+    }
+
+    private <T> CompletableFuture<T> submit(String endpoint, String[] tables, TransactionTemplate transaction,
+                                            Callable<T> task) {
+        Endpoint e = endpoints.computeIfAbsent(endpoint, k -> new Endpoint(k, meterRegistry));
+        CompletableFuture<T> result = new CompletableFuture<>();
+        if (!async) {
+            String[] before = ReadReplicas.reading();
+            ReadReplicas.reading(tables);
+            try {
+                run(e, transaction, task, result);
+            }
+            finally {
+                ReadReplicas.reading(before);
+            }
+            return result;
+        }
+        long queued = System.nanoTime();
+        // SQL задачи учитывается в том HTTP-запросе, который её поставил
+        SqlTrace.Trace trace = SqlTrace.current();
+        // и читает из той же базы, что и запрос (ReadYourWrites)
+        boolean primaryOnly = ReadReplicas.primaryOnly();
+        e.queued.incrementAndGet();
+        try {
+            executor.execute(() -> {
+                e.queued.decrementAndGet();
+                e.wait.record(System.nanoTime() - queued, TimeUnit.NANOSECONDS);
+                SqlTrace.set(trace);
+                ReadReplicas.primaryOnly(primaryOnly);
+                ReadReplicas.reading(tables);
+                try {
+                    run(e, transaction, task, result);
+                }
+                finally {
+                    SqlTrace.set(null);
+                    ReadReplicas.primaryOnly(false);
+                    ReadReplicas.reading(null);
+                }
+            });
+        }
+        catch (RejectedExecutionException ex) {
+            e.queued.decrementAndGet();
+            e.rejected.increment();
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Сервер перегружен, повторите попытку позже");
+        }
+        return result;
+    }
+
+    private <T> void run(Endpoint e, TransactionTemplate transaction, Callable<T> task, CompletableFuture<T> result) {
+        long start = System.nanoTime();
+        try {
+            result.complete(transaction.execute(status -> {
+                try {
+                    return task.call();
+                }
+                catch (RuntimeException ex) {
+                    throw ex;
+                }
+                catch (Exception ex) {
+                    throw new CompletionException(ex);
+                }
+            }));
+        }
+        catch (CompletionException ex) {
+            result.completeExceptionally(ex.getCause());
+        }
+        catch (RuntimeException | Error ex) {
+            result.completeExceptionally(ex);
+        }
+        finally {
+            e.run.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,93 @@
+package ru.iu3.backend.tools;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.cache.spi.RegionFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Кэш второго уровня Hibernate (области countries, museums, artists, paintings) и кэш запросов.
+ * Изменения через репозитории и JPQL-запросы Hibernate учитывает сам; после записи через JDBC
+ * (BulkImporter) нужно вызвать evict, иначе findByName может вернуть закэшированное "не найдено".
+ * /actuator/entitycache - попадания, промахи и записи по каждой области.
+ */
+@Component
+@Endpoint(id = "entitycache")
+public class EntityCache {
+
+    private final SessionFactory sessionFactory;
+
+    public EntityCache(EntityManagerFactory entityManagerFactory) {
+        this.sessionFactory = entityManagerFactory.unwrap(SessionFactory.class);
+    }
+
+    /**
+     * Сбрасывает записи сущностей и результаты запросов. Внутри транзакции - после её фиксации
+     * @param types - классы сущностей, таблицы которых изменены в обход Hibernate
+     */
+    public void evict(Class<?>... types) {
+        Utils.afterCommit(() -> {
+            for (Class<?> type : types)
+                sessionFactory.getCache().evictEntityData(type);
+            sessionFactory.getCache().evictQueryRegions();
+        });
+    }
+
+    /**
+     * Сбрасывает одну запись - после UPDATE строки в обход Hibernate (PartialUpdate).
+     * Результаты запросов тоже сбрасываются: findByName мог запомнить прежнее имя
+     */
+    public void evictEntity(Class<?> type, long id) {
+        // сущности без @Cache (пользователи) не кэшируются, и сбрасывать нечего
+        if (!sessionFactory.unwrap(SessionFactoryImplementor.class).getMetamodel().entityPersister(type).canWriteToCache())
+            return;
+        Utils.afterCommit(() -> {
+            sessionFactory.getCache().evictEntityData(type, id);
+            sessionFactory.getCache().evictQueryRegions();
+        });
+    }
+
+    @ReadOperation
+    public Map<String, Object> entityCache() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        boolean enabled = sessionFactory.getSessionFactoryOptions().isSecondLevelCacheEnabled();
+        Statistics statistics = sessionFactory.getStatistics();
+        result.put("enabled", enabled);
+        result.put("statistics", statistics.isStatisticsEnabled());
+        if (!enabled)
+            return result;
+
+        Map<String, Object> regions = new LinkedHashMap<>();
+        for (String name : statistics.getSecondLevelCacheRegionNames()) {
+            if (!name.equals(RegionFactory.DEFAULT_QUERY_RESULTS_REGION_UNQUALIFIED_NAME)
+                    && !name.equals(RegionFactory.DEFAULT_UPDATE_TIMESTAMPS_REGION_UNQUALIFIED_NAME))
+                regions.put(name, region(statistics.getDomainDataRegionStatistics(name)));
+        }
+        result.put("regions", regions);
+        if (sessionFactory.getSessionFactoryOptions().isQueryCacheEnabled())
+            result.put("queries", region(statistics.getQueryRegionStatistics(
+                    RegionFactory.DEFAULT_QUERY_RESULTS_REGION_UNQUALIFIED_NAME)));
+        return result;
+    }
+
+    private static Map<String, Object> region(CacheRegionStatistics r) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        if (r == null)
+            return m;
+        long hits = r.getHitCount();
+        long misses = r.getMissCount();
+        m.put("hits", hits);
+        m.put("misses", misses);
+        m.put("puts", r.getPutCount());
+        m.put("hitRatio", hits + misses == 0 ? 0.0 : (double) hits / (hits + misses));
+        return m;
+    }
+}
@@ -0,0 +1,35 @@
+package ru.iu3.backend.tools;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Ссылка на запись по ID в теле запроса. Принимает как число (5), так и объект ({"id": 5, ...}),
+ * поэтому списки удаления можно передавать и в виде ID, и в виде записей целиком.
+ */
+public class IdRef {
+
+    public final Long id;
+
+    @JsonCreator(mode = JsonCreator.Mode.PROPERTIES)
+    public IdRef(@JsonProperty("id") Long id) {
+        this.id = id;
+    }
+
+    @JsonCreator(mode = JsonCreator.Mode.DELEGATING)
+    public static IdRef of(long id) {
+        return new IdRef(id);
+    }
+
+    public static List<Long> ids(Collection<IdRef> refs) {
+        List<Long> ids = new ArrayList<>(refs.size());
+        for (IdRef r : refs)
+            if (r != null && r.id != null)
+                ids.add(r.id);
+        return ids;
+    }
+}
@@ -0,0 +1,53 @@
+package ru.iu3.backend.tools;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Страница, полученная по курсору. В отличие от Page не содержит общего количества записей,
+ * так что запрос COUNT(*) для неё не выполняется.
+ * @param <T> - тип записей
+ */
+public class KeysetPage<T> {
+
+    // Больше стольких записей за раз не выдаётся
+    public static final int MAX_LIMIT = 1000;
+
+    // Записи страницы
+    public final List<T> content;
+
+    // Курсор следующей страницы, null - если это последняя страница
+    public final String next;
+
+    public KeysetPage(List<T> content, String next) {
+        this.content = content;
+        this.next = next;
+    }
+
+    /**
+     * Проверяет размер страницы из запроса
+     * @return - limit, но не больше MAX_LIMIT
+     * @throws DataValidationException - если limit меньше 1
+     */
+    public static int limit(int limit) throws DataValidationException {
+        if (limit < 1)
+            throw new DataValidationException("Размер страницы (limit) должен быть не меньше 1");
+        return Math.min(limit, MAX_LIMIT);
+    }
+
+    /**
+     * Формирует страницу из выборки, запрошенной с запасом в одну запись
+     * @param rows - не более limit + 1 записей
+     * @param limit - размер страницы
+     * @param key - ключ сортировки записи
+     * @param id - ID записи
+     * @return - страница с курсором на последнюю запись, если дальше есть ещё записи
+     */
+    public static <T> KeysetPage<T> of(List<T> rows, int limit, Function<T, String> key, Function<T, Long> id) {
+        if (rows.size() <= limit)
+            return new KeysetPage<>(rows, null);
+        List<T> content = rows.subList(0, limit);
+        T last = content.get(limit - 1);
+        return new KeysetPage<>(content, new Cursor(key.apply(last), id.apply(last)).encode());
+    }
+}
@@ -0,0 +1,98 @@
+package ru.iu3.backend.tools;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.iu3.backend.models.Artist;
+import ru.iu3.backend.models.Country;
+import ru.iu3.backend.models.Museum;
+import ru.iu3.backend.repositories.ArtistRepository;
+import ru.iu3.backend.repositories.CountryRepository;
+import ru.iu3.backend.repositories.MuseumRepository;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Кэш поиска стран, музеев и художников по имени для методов добавления и изменения.
+ * Отсутствующие имена не кэшируются, поэтому добавление записи кэш не сбрасывает;
+ * изменение и удаление записи должны вызывать соответствующий evict.
+ */
+@Component
+public class LookupCache {
+
+    private final CountryRepository countryRepository;
+    private final MuseumRepository museumRepository;
+    private final ArtistRepository artistRepository;
+
+    private final Cache<String, Country> countries;
+    private final Cache<String, Museum> museums;
+    private final Cache<String, Artist> artists;
+
+    public LookupCache(CountryRepository countryRepository,
+                       MuseumRepository museumRepository,
+                       ArtistRepository artistRepository,
+                       MeterRegistry meterRegistry,
+                       @Value("${private.lookup-cache-size}") long maximumSize) {
+        this.countryRepository = countryRepository;
+        this.museumRepository = museumRepository;
+        this.artistRepository = artistRepository;
+        this.countries = build("countries", maximumSize, meterRegistry);
+        this.museums = build("museums", maximumSize, meterRegistry);
+        this.artists = build("artists", maximumSize, meterRegistry);
+    }
+
+    private static <T> Cache<String, T> build(String name, long maximumSize, MeterRegistry meterRegistry) {
+        Cache<String, T> cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, name);
+        Gauge.builder("cache.hit.ratio", cache, c -> c.stats().hitRate())
+                .tag("cache", name)
+                .register(meterRegistry);
+        return cache;
+    }
+
+    public Optional<Country> country(String name) {
+        return name == null ? Optional.empty()
+                : Optional.ofNullable(countries.get(name, n -> countryRepository.findByName(n).orElse(null)));
+    }
+
+    public Optional<Museum> museum(String name) {
+        return name == null ? Optional.empty()
+                : Optional.ofNullable(museums.get(name, n -> museumRepository.findByName(n).orElse(null)));
+    }
+
+    public Optional<Artist> artist(String name) {
+        return name == null ? Optional.empty()
+                : Optional.ofNullable(artists.get(name, n -> artistRepository.findByName(n).orElse(null)));
+    }
+
+    // Сброс - после фиксации транзакции: иначе параллельный запрос успел бы снова положить в кэш
+    // ещё не удалённую запись, и она осталась бы там насовсем
+    public void evictCountries(Collection<Long> ids) {
+        Set<Long> set = new HashSet<>(ids);
+        Utils.afterCommit(() -> {
+            countries.asMap().values().removeIf(c -> set.contains(c.id));
+            // в закэшированных художниках лежит прежняя страна
+            artists.invalidateAll();
+        });
+    }
+
+    public void evictMuseums(Collection<Long> ids) {
+        Set<Long> set = new HashSet<>(ids);
+        Utils.afterCommit(() -> museums.asMap().values().removeIf(m -> set.contains(m.id)));
+    }
+
+    public void evictArtists(Collection<Long> ids) {
+        Set<Long> set = new HashSet<>(ids);
+        Utils.afterCommit(() -> artists.asMap().values().removeIf(a -> set.contains(a.id)));
+    }
+}
@@ -0,0 +1,96 @@
+package ru.iu3.backend.tools;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import javax.persistence.Entity;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Выгрузка таблицы в формате NDJSON (один JSON-объект на строку).
+ * Записи читаются из потока репозитория и сразу пишутся в ответ, после чего
+ * сущность отсоединяется от контекста, так что расход памяти не зависит от размера таблицы.
+ */
+@Component
+public class NdjsonExporter {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private final ObjectMapper objectMapper;
+
+    private final ObjectWriter writer;
+
+    // писатели с подмешанными аннотациями: класс mix-in -> писатель
+    private final Map<Class<?>, ObjectWriter> mixinWriters = new ConcurrentHashMap<>();
+
+    private final TransactionTemplate transactionTemplate;
+
+    public NdjsonExporter(ObjectMapper objectMapper, PlatformTransactionManager transactionManager) {
+        this.objectMapper = objectMapper;
+        this.writer = writer(objectMapper);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+    }
+
+    /**
+     * @param query - запрос, возвращающий поток записей; выполняется внутри транзакции только для чтения
+     * @return - тело ответа, которое пишется уже после выхода из метода контроллера
+     */
+    public StreamingResponseBody export(Supplier<? extends Stream<?>> query) {
+        return export(query, writer);
+    }
+
+    /**
+     * Выгрузка, в которой записи type сериализуются с аннотациями Jackson из mixin - например,
+     * без полей, которые отдаются по одной записи, но не должны уходить всей таблицей
+     */
+    public StreamingResponseBody export(Supplier<? extends Stream<?>> query, Class<?> type, Class<?> mixin) {
+        ObjectWriter w = mixinWriters.computeIfAbsent(mixin, m -> writer(objectMapper.copy().addMixIn(type, m)));
+        return export(query, w);
+    }
+
+    private StreamingResponseBody export(Supplier<? extends Stream<?>> query, ObjectWriter writer) {
+        return out -> transactionTemplate.executeWithoutResult(status -> write(query, writer, out));
+    }
+
+    private static ObjectWriter writer(ObjectMapper objectMapper) {
+        // сброс после каждой записи не нужен - буфер генератора сбрасывается сам по мере заполнения
+        return objectMapper.writer()
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+                .withRootValueSeparator("");
+    }
+
+    private void write(Supplier<? extends Stream<?>> query, ObjectWriter writer, OutputStream out) {
+        try (Stream<?> rows = query.get();
+             JsonGenerator generator = writer.getFactory().createGenerator(out)
+                     .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)) {
+            Iterator<?> it = rows.iterator();
+            while (it.hasNext()) {
+                Object row = it.next();
+                writer.writeValue(generator, row);
+                generator.writeRaw('\n');
+                if (row.getClass().isAnnotationPresent(Entity.class))
+                    entityManager.detach(row);
+            }
+        }
+        catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package ru.iu3.backend.tools;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import org.springframework.boot.jackson.JsonComponent;
+import org.springframework.data.domain.Page;
+
+import java.io.IOException;
+
+/**
+ * Страница списка в ответе - только content и totalElements, всё, чем пользуется фронтенд.
+ * Spring Data добавлял к каждой странице pageable, sort, number, size, first, last и т.п.:
+ * они повторяют параметры запроса, а на коротких страницах занимали заметную часть ответа.
+ * Действует во всех форматах ответа: JSON, CBOR и Smile.
+ */
+@JsonComponent
+public class PageSerializer extends JsonSerializer<Page<?>> {
+
+    @Override
+    public void serialize(Page<?> page, JsonGenerator gen, SerializerProvider serializers) throws IOException {
+        gen.writeStartObject(page);
+        serializers.defaultSerializeField("content", page.getContent(), gen);
+        gen.writeNumberField("totalElements", page.getTotalElements());
+        gen.writeEndObject();
+    }
+}
@@ -0,0 +1,108 @@
+package ru.iu3.backend.tools;
+
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Частичное изменение записи (PATCH) одним UPDATE: без чтения строки и без merge Hibernate.
+ * Версия растёт тем же запросом, а при заданной ожидаемой версии строка с другой версией не меняется.
+ * Лишний запрос бывает только при неудаче - чтобы отличить отсутствующую запись от изменённой.
+ * Hibernate этот UPDATE не видит, поэтому запись сбрасывается из кэша второго уровня.
+ */
+@Component
+public class PartialUpdate {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final EntityCache entityCache;
+
+    public PartialUpdate(JdbcTemplate jdbcTemplate, EntityCache entityCache) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.entityCache = entityCache;
+    }
+
+    /**
+     * @param type - класс сущности таблицы, для кэша второго уровня
+     * @param columns - новые значения; имена столбцов задаёт контроллер, а не тело запроса
+     * @param version - ожидаемая версия записи, null - менять без проверки
+     * @param notFound - сообщение, если записи с таким ID нет
+     * @return - новая версия записи; null, если ожидаемая версия не задана и новая неизвестна
+     * @throws ResponseStatusException - 409, если запись уже изменена
+     */
+    public Long update(Class<?> type, String table, long id, Map<String, Object> columns, Long version,
+                       String notFound) throws DataValidationException {
+        if (columns.isEmpty())
+            throw new DataValidationException("Нет полей для изменения");
+        StringBuilder sql = new StringBuilder("UPDATE ").append(table).append(" SET ");
+        List<Object> args = new ArrayList<>();
+        columns.forEach((column, value) -> {
+            sql.append(column).append(" = ?, ");
+            args.add(value);
+        });
+        sql.append("version = version + 1 WHERE id = ?");
+        args.add(id);
+        if (version != null) {
+            sql.append(" AND version = ?");
+            args.add(version);
+        }
+        if (jdbcTemplate.update(sql.toString(), args.toArray()) == 0) {
+            Integer rows = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + table + " WHERE id = ?",
+                    Integer.class, id);
+            if (rows == null || rows == 0)
+                throw new DataValidationException(notFound);
+            throw Versions.conflict();
+        }
+        entityCache.evictEntity(type, id);
+        return version == null ? null : version + 1;
+    }
+
+    /**
+     * Ответ на PATCH: 204, с новой версией в ETag, если она известна
+     * @param stamp - счётчики таблиц после изменения, как в ETag ответа на GET
+     */
+    public static ResponseEntity<Void> updated(Long version, String stamp) {
+        if (version == null)
+            return ResponseEntity.noContent().build();
+        return ResponseEntity.noContent().eTag(Versions.etag(version, stamp)).build();
+    }
+
+    /**
+     * Ожидаемая версия: из If-Match, а без него - из поля version тела запроса
+     */
+    public static Long version(String ifMatch, Map<String, Object> body) throws DataValidationException {
+        Long expected = Versions.expected(ifMatch);
+        return expected != null ? expected : number(body, "version");
+    }
+
+    public static String text(Map<String, Object> body, String field) throws DataValidationException {
+        Object value = body.get(field);
+        if (value != null && !(value instanceof String))
+            throw new DataValidationException("Поле " + field + " должно быть строкой");
+        return (String) value;
+    }
+
+    public static Long number(Map<String, Object> body, String field) throws DataValidationException {
+        Object value = body.get(field);
+        if (value != null && !(value instanceof Number))
+            throw new DataValidationException("Поле " + field + " должно быть числом");
+        return value == null ? null : ((Number) value).longValue();
+    }
+
+    /**
+     * Ссылка на другую запись по имени, как в PUT: {"country": {"name": "Франция"}}; null - ссылку убрать
+     */
+    public static String refName(Map<String, Object> body, String field) throws DataValidationException {
+        Object value = body.get(field);
+        if (value == null)
+            return null;
+        if (!(value instanceof Map) || !(((Map<?, ?>) value).get("name") instanceof String))
+            throw new DataValidationException("Поле " + field + " - объект с именем записи");
+        return (String) ((Map<?, ?>) value).get("name");
+    }
+}
@@ -0,0 +1,120 @@
+package ru.iu3.backend.tools;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.CountAtBucket;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * /actuator/pool - состояние пула соединений одним запросом: занятые, свободные и ожидающие соединения,
+ * время ожидания соединения по процентилям, сколько раз соединение держали дольше порога утечки,
+ * очередь DbExecutor, которая стоит перед пулом, и пулы реплик для чтения, если они заданы.
+ * Те же числа по отдельности есть в /actuator/metrics/hikaricp.connections.*
+ */
+@Component
+@Endpoint(id = "pool")
+public class PoolDiagnostics {
+
+    private final HikariDataSource dataSource;
+
+    private final MeterRegistry meterRegistry;
+
+    private final ReadReplicas readReplicas;
+
+    public PoolDiagnostics(DataSource dataSource, MeterRegistry meterRegistry, ReadReplicas readReplicas)
+            throws SQLException {
+        // при включённых репликах - основная база, маршрутизатор вне транзакции отдаёт её
+        this.dataSource = dataSource.unwrap(HikariDataSource.class);
+        this.meterRegistry = meterRegistry;
+        this.readReplicas = readReplicas;
+    }
+
+    @ReadOperation
+    public Map<String, Object> pool() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("pool", dataSource.getPoolName());
+
+        Map<String, Object> connections = new LinkedHashMap<>();
+        HikariPoolMXBean mx = dataSource.getHikariPoolMXBean();
+        if (mx != null) {
+            connections.put("active", mx.getActiveConnections());
+            connections.put("idle", mx.getIdleConnections());
+            connections.put("pending", mx.getThreadsAwaitingConnection());
+            connections.put("total", mx.getTotalConnections());
+        }
+        connections.put("max", dataSource.getMaximumPoolSize());
+        connections.put("minIdle", dataSource.getMinimumIdle());
+        result.put("connections", connections);
+
+        Timer acquire = timer("hikaricp.connections.acquire");
+        if (acquire != null) {
+            HistogramSnapshot s = acquire.takeSnapshot();
+            Map<String, Object> wait = new LinkedHashMap<>();
+            wait.put("count", s.count());
+            wait.put("meanMs", s.mean(TimeUnit.MILLISECONDS));
+            wait.put("maxMs", s.max(TimeUnit.MILLISECONDS));
+            for (ValueAtPercentile p : s.percentileValues())
+                wait.put("p" + Math.round(p.percentile() * 100) + "Ms", p.value(TimeUnit.MILLISECONDS));
+            wait.put("timeoutMs", dataSource.getConnectionTimeout());
+            wait.put("timeouts", counter("hikaricp.connections.timeout"));
+            result.put("acquire", wait);
+        }
+
+        Timer usage = timer("hikaricp.connections.usage");
+        if (usage != null) {
+            HistogramSnapshot s = usage.takeSnapshot();
+            long threshold = dataSource.getLeakDetectionThreshold();
+            // счётчики корзин накопительные: в корзине порога - все соединения, отданные не позже него
+            long within = -1;
+            for (CountAtBucket b : s.histogramCounts()) {
+                if (b.bucket(TimeUnit.MILLISECONDS) <= threshold)
+                    within = Math.max(within, (long) b.count());
+            }
+            Map<String, Object> held = new LinkedHashMap<>();
+            held.put("count", s.count());
+            held.put("meanMs", s.mean(TimeUnit.MILLISECONDS));
+            held.put("maxMs", s.max(TimeUnit.MILLISECONDS));
+            held.put("leakThresholdMs", threshold);
+            // без порога (0) граница гистограммы не задана, и подсчитать превышения нельзя
+            if (threshold > 0 && within >= 0)
+                held.put("overThreshold", s.count() - within);
+            result.put("usage", held);
+        }
+
+        Map<String, Object> executor = new LinkedHashMap<>();
+        executor.put("queued", gauge("db.executor.queue"));
+        executor.put("active", gauge("db.executor.active"));
+        result.put("dbExecutor", executor);
+        if (readReplicas.enabled())
+            result.put("replicas", readReplicas.status());
+        return result;
+    }
+
+    private Timer timer(String name) {
+        return meterRegistry.find(name).tag("pool", dataSource.getPoolName()).timer();
+    }
+
+    private double counter(String name) {
+        Counter c = meterRegistry.find(name).tag("pool", dataSource.getPoolName()).counter();
+        return c == null ? 0 : c.count();
+    }
+
+    private Double gauge(String name) {
+        Gauge g = meterRegistry.find(name).gauge();
+        return g == null ? null : g.value();
+    }
+}
@@ -0,0 +1,357 @@
+package ru.iu3.backend.tools;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.core.Ordered;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Чтение из реплик базы. Если заданы private.replicas.urls, DataSource приложения заменяется
+ * маршрутизатором: транзакции только для чтения (задачи DbExecutor, find* репозиториев) берут соединение
+ * у реплик по очереди, остальное идёт в основную базу. Реплику, к которой не удалось подключиться,
+ * маршрутизатор пропускает до следующей удачной проверки (раз в private.replicas.health-interval мс),
+ * а чтение в это время идёт в основную базу.
+ * Реплика может отставать, поэтому после изменения таблицы (TableVersions.bump) чтение, которое её
+ * затрагивает, ещё private.replicas.read-your-writes-ms идёт в основную базу. Иначе ответ из отставшей
+ * реплики получил бы ETag с уже новыми счётчиками таблиц и до следующей записи отдавался бы как 304,
+ * а устаревшие сущности попали бы в кэш второго уровня. Отставание не измеряется: окно должно быть
+ * заведомо больше него. Какие таблицы читает задача, сообщает DbExecutor (reading); чтение, о котором
+ * это неизвестно (выгрузки и т.п.), уходит в основную базу после изменения любой таблицы.
+ */
+@Component
+public class ReadReplicas implements BeanPostProcessor, Ordered, MeterBinder, DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(ReadReplicas.class);
+
+    // true - текущий поток читает только из основной базы
+    private static final ThreadLocal<Boolean> PRIMARY_ONLY = new ThreadLocal<>();
+
+    // таблицы, из которых читает текущий поток; null - неизвестно
+    private static final ThreadLocal<String[]> READING = new ThreadLocal<>();
+
+    /**
+     * Пул соединений одной реплики
+     */
+    private static class Replica {
+        final String name;
+        final String url;
+        final HikariDataSource pool;
+        final LongAdder reads = new LongAdder();
+        final LongAdder failures = new LongAdder();
+        volatile boolean healthy = true;
+
+        Replica(String name, String url, HikariDataSource pool) {
+            this.name = name;
+            this.url = url;
+            this.pool = pool;
+        }
+
+        void down(SQLException ex) {
+            failures.increment();
+            if (healthy)
+                log.warn("Реплика {} недоступна, чтение идёт в основную базу: {}", name, ex.getMessage());
+            healthy = false;
+        }
+
+        void up() {
+            if (!healthy)
+                log.info("Реплика {} снова доступна", name);
+            healthy = true;
+        }
+    }
+
+    /**
+     * Выбирает пул на каждое соединение. Соединение берётся при первом SQL-запросе транзакции
+     * (LazyConnectionDataSourceProxy), когда признак readOnly уже известен
+     */
+    private class Router extends AbstractRoutingDataSource {
+        @Override
+        protected Object determineCurrentLookupKey() {
+            Replica r = route();
+            return r == null ? null : r.name;
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            Replica r = route();
+            if (r == null)
+                return primary.getConnection();
+            try {
+                Connection c = r.pool.getConnection();
+                r.reads.increment();
+                return c;
+            }
+            catch (SQLException ex) {
+                r.down(ex);
+                return primary.getConnection();
+            }
+        }
+    }
+
+    private final List<String> urls;
+
+    private final int poolSize;
+
+    private final long connectionTimeout;
+
+    private final long healthInterval;
+
+    private final long readYourWrites;
+
+    // таблица -> System.nanoTime(), до которого чтение из неё идёт в основную базу
+    private final Map<String, Long> primaryUntil = new ConcurrentHashMap<>();
+
+    // то же для чтения из неизвестных таблиц - по последнему изменению любой таблицы
+    private volatile long anyUntil;
+
+    private final List<Replica> replicas = new ArrayList<>();
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    private HikariDataSource primary;
+
+    private ScheduledExecutorService healthCheck;
+
+    public ReadReplicas(@Value("${private.replicas.urls}") String[] urls,
+                        @Value("${private.replicas.pool-size}") int poolSize,
+                        @Value("${private.replicas.connection-timeout}") long connectionTimeout,
+                        @Value("${private.replicas.health-interval}") long healthInterval,
+                        @Value("${private.replicas.read-your-writes-ms}") long readYourWrites) {
+        this.urls = Arrays.stream(urls).map(String::trim).filter(u -> !u.isEmpty()).collect(Collectors.toList());
+        this.poolSize = poolSize;
+        this.connectionTimeout = connectionTimeout;
+        this.healthInterval = healthInterval;
+        this.readYourWrites = TimeUnit.MILLISECONDS.toNanos(readYourWrites);
+        this.anyUntil = System.nanoTime();
+    }
+
+    public boolean enabled() {
+        return !urls.isEmpty();
+    }
+
+    public static boolean primaryOnly() {
+        return Boolean.TRUE.equals(PRIMARY_ONLY.get());
+    }
+
+    /**
+     * Направляет чтение текущего потока только в основную базу или снимает это ограничение
+     */
+    public static void primaryOnly(boolean primary) {
+        if (primary)
+            PRIMARY_ONLY.set(Boolean.TRUE);
+        else
+            PRIMARY_ONLY.remove();
+    }
+
+    public static String[] reading() {
+        return READING.get();
+    }
+
+    /**
+     * Задаёт таблицы, из которых читает текущий поток (null - неизвестно), для выбора базы после записи
+     */
+    public static void reading(String[] tables) {
+        if (tables == null)
+            READING.remove();
+        else
+            READING.set(tables);
+    }
+
+    /**
+     * Выполняет чтение в основной базе - для данных, которые должны быть свежими вне запроса к API
+     */
+    public static <T> T onPrimary(Supplier<T> read) {
+        boolean before = primaryOnly();
+        primaryOnly(true);
+        try {
+            return read.get();
+        }
+        finally {
+            primaryOnly(before);
+        }
+    }
+
+    /**
+     * Отмечает зафиксированное изменение таблиц: какое-то время чтение из них идёт в основную базу
+     */
+    public void wrote(String... tables) {
+        if (replicas.isEmpty())
+            return;
+        long until = System.nanoTime() + readYourWrites;
+        for (String t : tables)
+            primaryUntil.put(t, until);
+        anyUntil = until;
+    }
+
+    private boolean recentlyWritten() {
+        long now = System.nanoTime();
+        String[] tables = READING.get();
+        if (tables == null)
+            return now - anyUntil < 0;
+        for (String t : tables) {
+            Long until = primaryUntil.get(t);
+            if (until != null && now - until < 0)
+                return true;
+        }
+        return false;
+    }
+
+    private Replica route() {
+        if (replicas.isEmpty() || primaryOnly() || !TransactionSynchronizationManager.isCurrentTransactionReadOnly()
+                || recentlyWritten())
+            return null;
+        int n = replicas.size();
+        int start = Math.floorMod(next.getAndIncrement(), n);
+        for (int i = 0; i < n; i++) {
+            Replica r = replicas.get((start + i) % n);
+            if (r.healthy)
+                return r;
+        }
+        return null;
+    }
+
+    /**
+     * Проверяет подключение к каждой реплике и возвращает в работу восстановившиеся.
+     * Проверяется только доступность, отставание реплики не измеряется
+     */
+    public void checkHealth() {
+        for (Replica r : replicas) {
+            try (Connection c = r.pool.getConnection()) {
+                if (c.isValid((int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(connectionTimeout))))
+                    r.up();
+                else
+                    r.down(new SQLException("connection is not valid"));
+            }
+            catch (SQLException ex) {
+                r.down(ex);
+            }
+        }
+    }
+
+    /**
+     * Состояние реплик для /actuator/pool
+     */
+    public List<Map<String, Object>> status() {
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (Replica r : replicas) {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("pool", r.name);
+            m.put("url", r.url);
+            m.put("healthy", r.healthy);
+            HikariPoolMXBean mx = r.pool.getHikariPoolMXBean();
+            if (mx != null) {
+                m.put("active", mx.getActiveConnections());
+                m.put("idle", mx.getIdleConnections());
+                m.put("pending", mx.getThreadsAwaitingConnection());
+            }
+            m.put("reads", r.reads.sum());
+            m.put("failures", r.failures.sum());
+            result.add(m);
+        }
+        return result;
+    }
+
+    // Раньше SqlTrace (она не упорядочена): учёт SQL оборачивает маршрутизатор вместе с репликами
+    @Override
+    public int getOrder() {
+        return Ordered.LOWEST_PRECEDENCE;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (!enabled() || !"dataSource".equals(beanName) || !(bean instanceof HikariDataSource))
+            return bean;
+        primary = (HikariDataSource) bean;
+        Map<Object, Object> targets = new HashMap<>();
+        for (String url : urls) {
+            // пользователь, пароль и настройки пула - как у основной базы
+            HikariConfig config = new HikariConfig();
+            primary.copyStateTo(config);
+            config.setJdbcUrl(url);
+            config.setPoolName(primary.getPoolName() + "-replica-" + (replicas.size() + 1));
+            config.setMaximumPoolSize(poolSize);
+            config.setMinimumIdle(Math.min(poolSize, primary.getMinimumIdle()));
+            // недоступная реплика не должна надолго задерживать запрос перед переходом на основную базу
+            config.setConnectionTimeout(connectionTimeout);
+            config.setValidationTimeout(Math.min(connectionTimeout, primary.getValidationTimeout()));
+            config.setReadOnly(true);
+            // приложение стартует и без реплик
+            config.setInitializationFailTimeout(-1);
+            config.setMetricsTrackerFactory(null);
+            config.setMetricRegistry(null);
+            Replica r = new Replica(config.getPoolName(), url.replaceAll("\\?.*", ""), new HikariDataSource(config));
+            replicas.add(r);
+            targets.put(r.name, r.pool);
+        }
+
+        Router router = new Router();
+        router.setTargetDataSources(targets);
+        router.setDefaultTargetDataSource(primary);
+        router.afterPropertiesSet();
+
+        healthCheck = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "replica-health");
+            t.setDaemon(true);
+            return t;
+        });
+        healthCheck.scheduleWithFixedDelay(this::checkHealth, healthInterval, healthInterval, TimeUnit.MILLISECONDS);
+        log.info("Чтение из реплик: {}", replicas.stream().map(r -> r.url).collect(Collectors.joining(", ")));
+        return new LazyConnectionDataSourceProxy(router);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (Replica r : replicas) {
+            r.pool.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(registry));
+            FunctionCounter.builder("db.replicas.reads", r, x -> x.reads.sum())
+                    .description("соединений для чтения, выданных репликой")
+                    .tag("pool", r.name)
+                    .register(registry);
+            FunctionCounter.builder("db.replicas.failures", r, x -> x.failures.sum())
+                    .description("неудачных подключений к реплике")
+                    .tag("pool", r.name)
+                    .register(registry);
+            Gauge.builder("db.replicas.healthy", r, x -> x.healthy ? 1 : 0)
+                    .tag("pool", r.name)
+                    .register(registry);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (healthCheck != null)
+            healthCheck.shutdownNow();
+        replicas.forEach(r -> r.pool.close());
+    }
+}
@@ -0,0 +1,53 @@
+package ru.iu3.backend.tools;
+
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Выбор базы для чтения в запросе к API при включённых репликах (ReadReplicas).
+ * В основную базу читают изменяющие запросы (всё, кроме GET и HEAD) и /auth/**. Чтение сразу после
+ * чьей-либо записи направляет в основную базу сам ReadReplicas. Асинхронный запрос проходит здесь дважды; задачам DbExecutor выбор передаётся вместе с задачей.
+ */
+@Component
+public class ReadYourWrites implements AsyncHandlerInterceptor, WebMvcConfigurer {
+
+    private final ReadReplicas readReplicas;
+
+    public ReadYourWrites(ReadReplicas readReplicas) {
+        this.readReplicas = readReplicas;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        if (readReplicas.enabled())
+            registry.addInterceptor(this).addPathPatterns("/api/**", "/auth/**");
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        boolean primary = !isRead(request)
+                || request.getRequestURI().startsWith(request.getContextPath() + "/auth/");
+        ReadReplicas.primaryOnly(primary);
+        return true;
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        ReadReplicas.primaryOnly(false);
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        ReadReplicas.primaryOnly(false);
+    }
+
+    private static boolean isRead(HttpServletRequest request) {
+        return "GET".equals(request.getMethod()) || "HEAD".equals(request.getMethod());
+    }
+}
@@ -0,0 +1,107 @@
+package ru.iu3.backend.tools;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Время обработки, число и время SQL-запросов для каждого метода контроллера:
+ * api.requests (p50/p95/p99 и гистограмма для Prometheus), api.requests.sql, api.requests.sql.time
+ * с тегом handler = Класс.метод. Медленные запросы попадают в SlowRequestLog.
+ * Асинхронный запрос проходит через перехватчик дважды (до и после CompletableFuture),
+ * поэтому Trace хранится в атрибуте запроса, а время считается от первого входа.
+ */
+@Component
+public class RequestMetrics implements AsyncHandlerInterceptor, WebMvcConfigurer {
+
+    private static final String TRACE = RequestMetrics.class.getName() + ".trace";
+
+    /**
+     * Метрики одного метода контроллера
+     */
+    private static class Handler {
+        final Timer time;
+        final DistributionSummary sql;
+        final Timer sqlTime;
+
+        Handler(String name, MeterRegistry meterRegistry) {
+            this.time = Timer.builder("api.requests").tag("handler", name)
+                    .publishPercentiles(0.5, 0.95, 0.99)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry);
+            this.sql = DistributionSummary.builder("api.requests.sql").tag("handler", name)
+                    .description("SQL-запросов на один HTTP-запрос")
+                    .register(meterRegistry);
+            this.sqlTime = Timer.builder("api.requests.sql.time").tag("handler", name)
+                    .register(meterRegistry);
+        }
+    }
+
+    private final MeterRegistry meterRegistry;
+
+    private final SlowRequestLog slowRequestLog;
+
+    private final Map<Method, String> names = new ConcurrentHashMap<>();
+
+    private final Map<String, Handler> handlers = new ConcurrentHashMap<>();
+
+    public RequestMetrics(MeterRegistry meterRegistry, SlowRequestLog slowRequestLog) {
+        this.meterRegistry = meterRegistry;
+        this.slowRequestLog = slowRequestLog;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(this).addPathPatterns("/api/**", "/auth/**");
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (!(handler instanceof HandlerMethod))
+            return true;
+        SqlTrace.Trace trace = (SqlTrace.Trace) request.getAttribute(TRACE);
+        if (trace == null) {
+            trace = new SqlTrace.Trace();
+            request.setAttribute(TRACE, trace);
+        }
+        SqlTrace.set(trace);
+        return true;
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        SqlTrace.set(null);
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        SqlTrace.Trace trace = (SqlTrace.Trace) request.getAttribute(TRACE);
+        SqlTrace.set(null);
+        if (trace == null || !(handler instanceof HandlerMethod))
+            return;
+        long nanos = System.nanoTime() - trace.started;
+        HandlerMethod method = (HandlerMethod) handler;
+        String name = names.computeIfAbsent(method.getMethod(),
+                m -> method.getBeanType().getSimpleName() + "." + m.getName());
+        Handler h = handlers.computeIfAbsent(name, n -> new Handler(n, meterRegistry));
+        h.time.record(nanos, TimeUnit.NANOSECONDS);
+        h.sql.record(trace.count());
+        h.sqlTime.record(trace.nanos(), TimeUnit.NANOSECONDS);
+        if (slowRequestLog.isSlow(nanos))
+            slowRequestLog.add(new SlowRequestLog.Entry(request.getMethod(), request.getRequestURI(), name,
+                    response.getStatus(), nanos, trace));
+    }
+}
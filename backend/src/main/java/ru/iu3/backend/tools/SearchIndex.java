@@ -0,0 +1,256 @@
+package ru.iu3.backend.tools;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Поиск по началу слов в именах художников, названиях и адресах музеев и названиях картин.
+ * Для каждого слова хранятся все его префиксы, поэтому запрос - это поиск в хэш-таблице
+ * и просмотр начала упорядоченного списка записей, без LIKE и без обращения к базе.
+ * Индекс строится из базы при запуске, а затем обновляется контроллерами при каждой записи.
+ */
+@Component
+public class SearchIndex {
+
+    public enum Type { ARTIST, MUSEUM, PAINTING }
+
+    // Префиксы длиннее этого не храним: более длинное слово запроса обрезается до той же длины
+    private static final int MAX_PREFIX = 24;
+
+    /**
+     * Найденная запись
+     */
+    public static class Hit {
+        public final Type type;
+        public final long id;
+        public final String name;
+
+        Hit(Type type, long id, String name) {
+            this.type = type;
+            this.id = id;
+            this.name = name;
+        }
+    }
+
+    private static final Comparator<Hit> ORDER = Comparator
+            .comparing((Hit h) -> h.name, String.CASE_INSENSITIVE_ORDER)
+            .thenComparingLong(h -> h.id);
+
+    /**
+     * Индекс одного типа записей. Записи каждого префикса хранятся уже в алфавитном порядке,
+     * поэтому первые limit совпадений находятся без перебора всех записей с этим префиксом.
+     * Чтение идёт без блокировок, изменения - по одному. Блокировка - ReentrantLock, а не synchronized:
+     * перечитывание из базы держит её во время запроса, и виртуальный поток не должен закреплять за собой носитель
+     */
+    private static class Index {
+        final Type type;
+        final Map<String, NavigableSet<Hit>> postings = new ConcurrentHashMap<>();
+        final Map<Long, Hit> hits = new ConcurrentHashMap<>();
+        final Map<Long, Set<String>> prefixes = new ConcurrentHashMap<>();
+        final ReentrantLock lock = new ReentrantLock();
+
+        Index(Type type) {
+            this.type = type;
+        }
+
+        void put(long id, String name, String... text) {
+            lock.lock();
+            try {
+                remove(id);
+                Hit h = new Hit(type, id, name == null ? "" : name);
+                Set<String> now = prefixes(name, text);
+                prefixes.put(id, now);
+                hits.put(id, h);
+                for (String p : now)
+                    postings.computeIfAbsent(p, k -> new ConcurrentSkipListSet<>(ORDER)).add(h);
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        void remove(long id) {
+            lock.lock();
+            try {
+                Hit h = hits.remove(id);
+                Set<String> before = prefixes.remove(id);
+                if (h == null || before == null)
+                    return;
+                for (String p : before) {
+                    postings.computeIfPresent(p, (k, set) -> {
+                        set.remove(h);
+                        return set.isEmpty() ? null : set;
+                    });
+                }
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        void clear() {
+            lock.lock();
+            try {
+                postings.clear();
+                hits.clear();
+                prefixes.clear();
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @param words - слова запроса, первое - самое длинное (обычно у него меньше всего совпадений)
+         */
+        void find(List<String> words, int limit, List<Hit> result) {
+            NavigableSet<Hit> first = postings.get(words.get(0));
+            if (first == null)
+                return;
+            int found = 0;
+            for (Hit h : first) {
+                Set<String> p = prefixes.get(h.id);
+                if (p == null || !p.containsAll(words))
+                    continue;
+                result.add(h);
+                if (++found == limit)
+                    break;
+            }
+        }
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final Map<Type, Index> indexes = new EnumMap<>(Type.class);
+
+    public SearchIndex(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        for (Type t : Type.values())
+            indexes.put(t, new Index(t));
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        reload(Type.ARTIST);
+        reload(Type.MUSEUM);
+        reload(Type.PAINTING);
+    }
+
+    /**
+     * Перечитывает из базы записи одного типа - после массовой загрузки, когда ID новых строк неизвестны.
+     * Пока идёт чтение, поиск по этому типу может вернуть неполный результат
+     */
+    public void reload(Type type) {
+        Index index = indexes.get(type);
+        index.lock.lock();
+        try {
+            index.clear();
+            load(index, "");
+        }
+        finally {
+            index.lock.unlock();
+        }
+    }
+
+    /**
+     * Перечитывает из базы одну запись - когда изменена только часть её полей (PATCH)
+     */
+    public void refresh(Type type, long id) {
+        Index index = indexes.get(type);
+        Utils.afterCommit(() -> {
+            index.lock.lock();
+            try {
+                index.remove(id);
+                load(index, " WHERE id = ?", id);
+            }
+            finally {
+                index.lock.unlock();
+            }
+        });
+    }
+
+    private void load(Index index, String where, Object... args) {
+        switch (index.type) {
+            case ARTIST:
+                jdbcTemplate.query("SELECT id, name FROM artists" + where,
+                        rs -> { index.put(rs.getLong(1), rs.getString(2)); }, args);
+                break;
+            case MUSEUM:
+                jdbcTemplate.query("SELECT id, name, location FROM museums" + where,
+                        rs -> { index.put(rs.getLong(1), rs.getString(2), rs.getString(3)); }, args);
+                break;
+            case PAINTING:
+                jdbcTemplate.query("SELECT id, name FROM paintings" + where,
+                        rs -> { index.put(rs.getLong(1), rs.getString(2)); }, args);
+                break;
+        }
+    }
+
+    /**
+     * Добавляет или обновляет запись
+     * @param text - дополнительные поля, по которым тоже ищем (например, адрес музея)
+     */
+    public void put(Type type, long id, String name, String... text) {
+        Utils.afterCommit(() -> indexes.get(type).put(id, name, text));
+    }
+
+    public void remove(Type type, Collection<Long> ids) {
+        Index index = indexes.get(type);
+        Utils.afterCommit(() -> ids.forEach(index::remove));
+    }
+
+    /**
+     * @param query - слова запроса; каждое должно быть началом какого-либо слова записи
+     * @param types - где искать, пустой набор - везде
+     * @param limit - сколько записей вернуть
+     * @return - записи в алфавитном порядке
+     */
+    public List<Hit> search(String query, Set<Type> types, int limit) {
+        List<String> words = new ArrayList<>(new LinkedHashSet<>(words(query)));
+        if (words.isEmpty() || limit <= 0)
+            return Collections.emptyList();
+        words.sort(Comparator.comparingInt(String::length).reversed());
+        List<Hit> result = new ArrayList<>();
+        for (Type t : types.isEmpty() ? EnumSet.allOf(Type.class) : types)
+            indexes.get(t).find(words, limit, result);
+        result.sort(ORDER);
+        return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+    }
+
+    private static Set<String> prefixes(String name, String... text) {
+        List<String> all = words(name);
+        for (String s : text)
+            all.addAll(words(s));
+        Set<String> result = new HashSet<>();
+        for (String w : all)
+            for (int i = 1; i <= w.length(); i++)
+                result.add(w.substring(0, i));
+        return result;
+    }
+
+    // Слова в нижнем регистре (ё = е), обрезанные до MAX_PREFIX; разделитель - всё, кроме букв и цифр
+    private static List<String> words(String s) {
+        List<String> result = new ArrayList<>();
+        if (s == null)
+            return result;
+        String lower = s.toLowerCase(Locale.ROOT).replace('ё', 'е');
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean letter = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+            if (letter && start < 0)
+                start = i;
+            else if (!letter && start >= 0) {
+                result.add(lower.substring(start, Math.min(i, start + MAX_PREFIX)));
+                start = -1;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,71 @@
+package ru.iu3.backend.tools;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * /actuator/slowrequests - последние private.slow-request-log-size запросов, обработанных дольше
+ * private.slow-request-ms миллисекунд, вместе с выполненными ими SQL-запросами. Старые записи вытесняются новыми.
+ */
+@Component
+@Endpoint(id = "slowrequests")
+public class SlowRequestLog {
+
+    /**
+     * Запись журнала
+     */
+    public static class Entry {
+        public final Instant at;
+        public final String method;
+        public final String uri;
+        public final String handler;
+        public final int status;
+        public final double ms;
+        public final int sqlCount;
+        public final double sqlMs;
+        public final List<String> queries;
+
+        Entry(String method, String uri, String handler, int status, long nanos, SqlTrace.Trace trace) {
+            this.at = Instant.now();
+            this.method = method;
+            this.uri = uri;
+            this.handler = handler;
+            this.status = status;
+            this.ms = nanos / 1e6;
+            this.sqlCount = trace.count();
+            this.sqlMs = trace.nanos() / 1e6;
+            this.queries = trace.queries();
+        }
+    }
+
+    private final long thresholdNanos;
+
+    private final ArrayBlockingQueue<Entry> entries;
+
+    public SlowRequestLog(@Value("${private.slow-request-ms}") long thresholdMs,
+                          @Value("${private.slow-request-log-size}") int size) {
+        this.thresholdNanos = thresholdMs * 1_000_000;
+        this.entries = new ArrayBlockingQueue<>(size);
+    }
+
+    boolean isSlow(long nanos) {
+        return nanos >= thresholdNanos;
+    }
+
+    void add(Entry e) {
+        while (!entries.offer(e))
+            entries.poll();
+    }
+
+    @ReadOperation
+    public List<Entry> slowRequests() {
+        return new ArrayList<>(entries);
+    }
+}
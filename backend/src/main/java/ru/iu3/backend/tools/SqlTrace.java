@@ -0,0 +1,98 @@
+package ru.iu3.backend.tools;
+
+import net.ttddyy.dsproxy.ExecutionInfo;
+import net.ttddyy.dsproxy.QueryInfo;
+import net.ttddyy.dsproxy.listener.QueryExecutionListener;
+import net.ttddyy.dsproxy.support.ProxyDataSource;
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Учёт SQL-запросов, выполненных при обработке одного HTTP-запроса.
+ * DataSource оборачивается datasource-proxy; после каждого запроса к базе число и время добавляются
+ * к Trace текущего потока, если он есть. Trace ставит RequestMetrics, а DbExecutor переносит его
+ * в свои потоки вместе с задачей. Параметры запросов не сохраняются - среди них бывают пароли.
+ */
+@Component
+public class SqlTrace implements BeanPostProcessor, QueryExecutionListener {
+
+    // Сколько текстов запросов хранить для журнала медленных запросов
+    private static final int MAX_QUERIES = 50;
+
+    private static final String STARTED = "sqlTrace.started";
+
+    private static final ThreadLocal<Trace> CURRENT = new ThreadLocal<>();
+
+    /**
+     * SQL одного HTTP-запроса
+     */
+    public static class Trace {
+        final long started = System.nanoTime();
+        final AtomicInteger count = new AtomicInteger();
+        final AtomicLong nanos = new AtomicLong();
+        final List<String> queries = Collections.synchronizedList(new ArrayList<>());
+
+        public int count() {
+            return count.get();
+        }
+
+        public long nanos() {
+            return nanos.get();
+        }
+
+        public List<String> queries() {
+            synchronized (queries) {
+                return new ArrayList<>(queries);
+            }
+        }
+    }
+
+    public static Trace current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * @param trace - Trace, к которому относить запросы этого потока; null - не учитывать
+     */
+    public static void set(Trace trace) {
+        if (trace == null)
+            CURRENT.remove();
+        else
+            CURRENT.set(trace);
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof DataSource && !(bean instanceof ProxyDataSource))
+            return ProxyDataSourceBuilder.create((DataSource) bean).name(beanName).listener(this).build();
+        return bean;
+    }
+
+    @Override
+    public void beforeQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+        if (CURRENT.get() != null)
+            execInfo.addCustomValue(STARTED, System.nanoTime());
+    }
+
+    @Override
+    public void afterQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+        Trace t = CURRENT.get();
+        Long started = execInfo.getCustomValue(STARTED, Long.class);
+        if (t == null || started == null)
+            return;
+        t.count.incrementAndGet();
+        t.nanos.addAndGet(System.nanoTime() - started);
+        for (QueryInfo q : queryInfoList) {
+            if (t.queries.size() < MAX_QUERIES)
+                t.queries.add(q.getQuery());
+        }
+    }
+}
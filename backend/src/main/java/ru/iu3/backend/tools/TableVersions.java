@@ -0,0 +1,91 @@
+package ru.iu3.backend.tools;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Счётчики изменений таблиц, из которых строятся ETag для условных GET-запросов.
+ * Контроллеры увеличивают счётчик после каждой записи в таблицу, поэтому проверка If-None-Match
+ * не требует ни запроса к базе, ни сериализации ответа.
+ * Время активности пользователей (users.activity) счётчик не меняет.
+ * Изменение таблицы на время переключает чтение из неё на основную базу (ReadReplicas), чтобы ответ
+ * с новым ETag не был прочитан из отставшей реплики.
+ */
+@Component
+public class TableVersions {
+
+    public static final String ARTISTS = "artists";
+    public static final String COUNTRIES = "countries";
+    public static final String MUSEUMS = "museums";
+    public static final String PAINTINGS = "paintings";
+    public static final String USERS = "users";
+
+    // Счётчики живут только в памяти, поэтому ETag разных запусков сервера не должны совпадать
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+
+    private final Map<String, AtomicLong> versions = new ConcurrentHashMap<>();
+
+    private final ReadReplicas readReplicas;
+
+    public TableVersions(ReadReplicas readReplicas) {
+        this.readReplicas = readReplicas;
+    }
+
+    /**
+     * Отмечает изменение таблиц. Внутри транзакции - только после её фиксации,
+     * иначе параллельный запрос мог бы пометить новым ETag ещё старые данные
+     */
+    public void bump(String... tables) {
+        Utils.afterCommit(() -> increment(tables));
+    }
+
+    private void increment(String[] tables) {
+        // до счётчиков: запрос, увидевший новый ETag, уже читает из основной базы
+        readReplicas.wrote(tables);
+        for (String t : tables)
+            versions.computeIfAbsent(t, k -> new AtomicLong()).incrementAndGet();
+    }
+
+    /**
+     * @param tables - таблицы, из которых собирается ответ
+     * @param parts - параметры запроса, от которых зависит ответ (ID, номер страницы и т.п.)
+     * @return - слабый ETag; формат ответа (BinaryFormats) входит в него сам
+     */
+    public String etag(String[] tables, Object... parts) {
+        StringBuilder sb = new StringBuilder("W/\"").append(counters(tables));
+        for (Object p : parts)
+            sb.append('-').append(p);
+        return variant(sb, BinaryFormats.variant()).append('"').toString();
+    }
+
+    /**
+     * Текущие счётчики таблиц и формат ответа текущего запроса, без кавычек - часть ETag записи (см. Versions.etag)
+     */
+    public String stamp(String... tables) {
+        return stamp(BinaryFormats.variant(), tables);
+    }
+
+    /**
+     * То же вне потока запроса
+     * @param variant - формат ответа, BinaryFormats.variant() в потоке запроса
+     */
+    public String stamp(String variant, String[] tables) {
+        return variant(counters(tables), variant).toString();
+    }
+
+    private StringBuilder counters(String[] tables) {
+        StringBuilder sb = new StringBuilder(epoch);
+        for (String t : tables) {
+            AtomicLong v = versions.get(t);
+            sb.append('-').append(v == null ? 0 : v.get());
+        }
+        return sb;
+    }
+
+    private static StringBuilder variant(StringBuilder sb, String variant) {
+        return variant.isEmpty() ? sb : sb.append('-').append(variant);
+    }
+}
@@ -1,20 +1,97 @@
 package ru.iu3.backend.tools;
 
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.security.crypto.codec.Hex;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Set;
+import java.util.function.ToIntFunction;
 
 public class Utils {
 
-    public static String ComputeHash(String pwd, String salt)
-    {
-        MessageDigest digest;
-        byte[] w = Hex.decode(new String(Hex.encode(pwd.getBytes())) + salt);
+    // MessageDigest не потокобезопасен, но его можно переиспользовать после digest()
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
         try {
-            digest = MessageDigest.getInstance("SHA-256");
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
         }
-        catch (Exception ex) {
-            return new String();
+    });
+
+    /**
+     * Прежний хэш пароля: SHA-256 от байтов пароля, за которыми идут байты соли (соль - в hex).
+     * Новые пароли хэшируются через {@link ru.iu3.backend.auth.PasswordHasher}
+     */
+    public static String ComputeHash(String pwd, String salt)
+    {
+        // соль разбирается до update: испорченная соль не должна оставить пароль в общем для потока digest
+        byte[] s = Hex.decode(salt);
+        MessageDigest digest = SHA256.get();
+        digest.update(pwd.getBytes());
+        return new String(Hex.encode(digest.digest(s)));
+    }
+
+    /**
+     * Выполняет действие после фиксации текущей транзакции, а вне транзакции - сразу.
+     * Так кэши и счётчики в памяти не видят изменений, которые потом будут откачены
+     */
+    public static void afterCommit(Runnable action)
+    {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
         }
-        return new String(Hex.encode(digest.digest(w)));
+        else
+            action.run();
+    }
+
+    /**
+     * Сортировка для постраничного вывода по параметрам запроса
+     * @param sort - поле из allowed; при равенстве записи дополнительно упорядочиваются по id
+     * @param order - asc или desc
+     */
+    public static Sort sort(String sort, String order, Set<String> allowed) throws DataValidationException
+    {
+        if (!allowed.contains(sort))
+            throw new DataValidationException("Сортировка возможна только по полям " + allowed);
+        Sort.Direction direction = Sort.Direction.fromOptionalString(order)
+                .orElseThrow(() -> new DataValidationException("Порядок сортировки - asc или desc"));
+        return Sort.by(direction, sort).and(Sort.by(direction, "id"));
+    }
+
+    /**
+     * Страница постраничного вывода по параметрам запроса
+     * @param limit - от 1, больше KeysetPage.MAX_LIMIT не выдаётся
+     */
+    public static Pageable page(int page, int limit, Sort sort) throws DataValidationException
+    {
+        if (page < 0)
+            throw new DataValidationException("Номер страницы (page) не может быть отрицательным");
+        return PageRequest.of(page, KeysetPage.limit(limit), sort);
+    }
+
+    // Не больше стольких значений в одном IN (...)
+    public static final int IN_CHUNK_SIZE = 1000;
+
+    /**
+     * Выполняет операцию над списком ID порциями по IN_CHUNK_SIZE
+     * @return - сумма результатов операции (например, число удалённых строк)
+     */
+    public static int inChunks(List<Long> ids, ToIntFunction<List<Long>> op)
+    {
+        int total = 0;
+        for (int i = 0; i < ids.size(); i += IN_CHUNK_SIZE)
+            total += op.applyAsInt(ids.subList(i, Math.min(i + IN_CHUNK_SIZE, ids.size())));
+        return total;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,60 @@
+package ru.iu3.backend.tools;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * Условные изменения по версии записи (поле version моделей). Клиент передаёт прочитанную версию
+ * в If-Match - ETag из ответа на GET, PUT или PATCH, либо просто "5" (кавычки и W/ необязательны,
+ * * - любая версия). Без заголовка берётся поле version из тела запроса. Если запись с тех пор
+ * изменилась, ответ - 409, а не молчаливая перезапись чужих изменений.
+ * ETag записи - W/"версия-счётчики таблиц": по версии сверяется If-Match, а счётчики (TableVersions)
+ * меняют ETag и при изменении вложенных записей - художника картины, музеев пользователя и т.п.
+ */
+public class Versions {
+
+    /**
+     * @return - ожидаемая версия; null - заголовка нет или он равен *
+     * @throws ResponseStatusException - 400, если в заголовке не номер версии
+     */
+    public static Long expected(String ifMatch) {
+        if (ifMatch == null || ifMatch.isBlank() || ifMatch.trim().equals("*"))
+            return null;
+        String v = ifMatch.trim();
+        if (v.startsWith("W/"))
+            v = v.substring(2);
+        v = v.replace("\"", "");
+        int stamp = v.indexOf('-');
+        if (stamp > 0)
+            v = v.substring(0, stamp);
+        try {
+            return Long.parseLong(v);
+        }
+        catch (NumberFormatException ex) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "If-Match - ETag или номер версии записи");
+        }
+    }
+
+    /**
+     * Сверяет версию загруженной записи с If-Match, а без него - с версией из тела запроса
+     * @param sent - поле version тела запроса, null - клиент его не передал
+     */
+    public static void check(String ifMatch, Long sent, long version) {
+        Long expected = expected(ifMatch);
+        if (expected == null)
+            expected = sent;
+        if (expected != null && expected != version)
+            throw conflict();
+    }
+
+    public static ResponseStatusException conflict() {
+        return new ResponseStatusException(HttpStatus.CONFLICT, "Запись изменена другим пользователем, перечитайте её");
+    }
+
+    /**
+     * @param stamp - TableVersions.stamp таблиц, из которых собирается ответ
+     */
+    public static String etag(long version, String stamp) {
+        return "W/\"" + version + "-" + stamp + "\"";
+    }
+}
@@ -0,0 +1,37 @@
+package ru.iu3.backend.tools;
+
+import org.apache.coyote.ProtocolHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Обработка запросов Tomcat в виртуальных потоках (private.virtual-threads = true, JDK 21 и новее).
+ * Сборка остаётся на Java 11, поэтому пул виртуальных потоков создаётся через отражение;
+ * на старом JDK остаются обычные потоки Tomcat и в журнал пишется предупреждение.
+ * Чтение из базы по-прежнему идёт в DbExecutor - число одновременных запросов к базе ограничено пулом
+ * соединений, сколько бы виртуальных потоков ни ждало ответа.
+ */
+@Component
+@ConditionalOnProperty(name = "private.virtual-threads", havingValue = "true")
+public class VirtualThreads implements TomcatProtocolHandlerCustomizer<ProtocolHandler> {
+
+    private static final Logger log = LoggerFactory.getLogger(VirtualThreads.class);
+
+    @Override
+    public void customize(ProtocolHandler protocolHandler) {
+        try {
+            protocolHandler.setExecutor((ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null));
+        }
+        catch (ReflectiveOperationException ex) {
+            log.warn("Виртуальные потоки недоступны в Java {}, запросы обслуживают обычные потоки Tomcat",
+                    System.getProperty("java.version"));
+        }
+    }
+}
@@ -0,0 +1,16 @@
+-- Индексы под частые условия поиска и постраничный вывод по ключу (ORDER BY name, id).
+-- Уникальные ключи по name и login в InnoDB уже хранят id первичного ключа - для вывода всего
+-- каталога отдельные индексы (name, id) не нужны. Здесь - выборки внутри одного музея или страны
+-- и поиск по токену, которые без индексов читали таблицу целиком.
+
+-- аутентификация: UserRepository.findByToken
+CREATE INDEX users_token ON users (token);
+
+-- картины музея: /museums/{id}/paintings постранично и по ключу, обнуление ссылок при удалении музея
+CREATE INDEX paintings_museum_name ON paintings (museumid, name, id);
+
+-- обнуление ссылок при удалении художников
+CREATE INDEX paintings_artist ON paintings (artistid);
+
+-- художники страны: /countries/{id}/artists
+CREATE INDEX artists_country_name ON artists (country, name, id);
@@ -0,0 +1,7 @@
+-- Версии строк для оптимистической блокировки (@Version в моделях).
+-- Каждое изменение через Hibernate или PATCH увеличивает версию на 1; существующие строки начинают с 0
+ALTER TABLE countries ADD COLUMN version BIGINT NOT NULL DEFAULT 0;
+ALTER TABLE artists ADD COLUMN version BIGINT NOT NULL DEFAULT 0;
+ALTER TABLE museums ADD COLUMN version BIGINT NOT NULL DEFAULT 0;
+ALTER TABLE paintings ADD COLUMN version BIGINT NOT NULL DEFAULT 0;
+ALTER TABLE users ADD COLUMN version BIGINT NOT NULL DEFAULT 0;
@@ -0,0 +1,7 @@
+-- Индексы для поиска музея по имени (MuseumRepository.findByName) и вывода картин по ключу (name, id).
+-- Базы, заведённые до миграций, приняты за версию 1 без её выполнения (baseline-on-migrate), и уникальных
+-- ключей name из V1 в них может не быть. В новой базе эти индексы повторяют уникальные ключи - это
+-- лишь лишняя запись при изменении имени.
+CREATE INDEX museums_name ON museums (name);
+
+CREATE INDEX paintings_name ON paintings (name, id);
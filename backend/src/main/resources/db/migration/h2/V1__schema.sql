@@ -0,0 +1,60 @@
+-- Та же схема, что db/migration/mysql, для H2 в режиме MySQL (тесты и бенчмарки):
+-- без параметров таблиц InnoDB, имена уникальных ключей с именем таблицы - в H2 они общие для всей схемы
+
+CREATE TABLE countries (
+    id BIGINT NOT NULL AUTO_INCREMENT,
+    name VARCHAR(255) NOT NULL,
+    PRIMARY KEY (id),
+    CONSTRAINT countries_name_UNIQUE UNIQUE (name)
+);
+
+CREATE TABLE artists (
+    id BIGINT NOT NULL AUTO_INCREMENT,
+    name VARCHAR(255) NOT NULL,
+    age VARCHAR(255) NOT NULL,
+    country BIGINT,
+    PRIMARY KEY (id),
+    CONSTRAINT artists_name_UNIQUE UNIQUE (name),
+    CONSTRAINT fk_artists_country FOREIGN KEY (country) REFERENCES countries (id) ON DELETE SET NULL
+);
+
+CREATE TABLE museums (
+    id BIGINT NOT NULL AUTO_INCREMENT,
+    name VARCHAR(255) NOT NULL,
+    location VARCHAR(255),
+    PRIMARY KEY (id),
+    CONSTRAINT museums_name_UNIQUE UNIQUE (name)
+);
+
+CREATE TABLE paintings (
+    id BIGINT NOT NULL AUTO_INCREMENT,
+    name VARCHAR(255),
+    artistid BIGINT,
+    museumid BIGINT,
+    year BIGINT,
+    PRIMARY KEY (id),
+    CONSTRAINT paintings_name_UNIQUE UNIQUE (name),
+    CONSTRAINT fk_paintings_artist FOREIGN KEY (artistid) REFERENCES artists (id) ON DELETE SET NULL,
+    CONSTRAINT fk_paintings_museum FOREIGN KEY (museumid) REFERENCES museums (id) ON DELETE SET NULL
+);
+
+CREATE TABLE users (
+    id BIGINT NOT NULL AUTO_INCREMENT,
+    login VARCHAR(255) NOT NULL,
+    password VARCHAR(255),
+    email VARCHAR(255) NOT NULL,
+    salt VARCHAR(255),
+    token VARCHAR(255),
+    activity DATETIME,
+    PRIMARY KEY (id),
+    CONSTRAINT users_login_UNIQUE UNIQUE (login),
+    CONSTRAINT users_email_UNIQUE UNIQUE (email)
+);
+
+CREATE TABLE usersmuseums (
+    userid BIGINT NOT NULL,
+    museumid BIGINT NOT NULL,
+    PRIMARY KEY (userid, museumid),
+    CONSTRAINT fk_usersmuseums_user FOREIGN KEY (userid) REFERENCES users (id) ON DELETE CASCADE,
+    CONSTRAINT fk_usersmuseums_museum FOREIGN KEY (museumid) REFERENCES museums (id) ON DELETE CASCADE
+);
@@ -0,0 +1,62 @@
+-- Схема, под которую написан код: таблицы моделей и уникальные ключи name_UNIQUE,
+-- по именам которых контроллеры распознают повторное добавление (MySQL пишет в ошибке "таблица.ключ").
+-- На существующей базе не выполняется: Flyway помечает её версией 1 (spring.flyway.baseline-on-migrate).
+-- То же для H2 - db/migration/h2
+
+CREATE TABLE countries (
+    id BIGINT NOT NULL AUTO_INCREMENT,
+    name VARCHAR(255) NOT NULL,
+    PRIMARY KEY (id),
+    CONSTRAINT name_UNIQUE UNIQUE (name)
+) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4;
+
+CREATE TABLE artists (
+    id BIGINT NOT NULL AUTO_INCREMENT,
+    name VARCHAR(255) NOT NULL,
+    age VARCHAR(255) NOT NULL,
+    country BIGINT,
+    PRIMARY KEY (id),
+    CONSTRAINT name_UNIQUE UNIQUE (name),
+    CONSTRAINT fk_artists_country FOREIGN KEY (country) REFERENCES countries (id) ON DELETE SET NULL
+) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4;
+
+CREATE TABLE museums (
+    id BIGINT NOT NULL AUTO_INCREMENT,
+    name VARCHAR(255) NOT NULL,
+    location VARCHAR(255),
+    PRIMARY KEY (id),
+    CONSTRAINT name_UNIQUE UNIQUE (name)
+) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4;
+
+CREATE TABLE paintings (
+    id BIGINT NOT NULL AUTO_INCREMENT,
+    name VARCHAR(255),
+    artistid BIGINT,
+    museumid BIGINT,
+    year BIGINT,
+    PRIMARY KEY (id),
+    CONSTRAINT name_UNIQUE UNIQUE (name),
+    CONSTRAINT fk_paintings_artist FOREIGN KEY (artistid) REFERENCES artists (id) ON DELETE SET NULL,
+    CONSTRAINT fk_paintings_museum FOREIGN KEY (museumid) REFERENCES museums (id) ON DELETE SET NULL
+) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4;
+
+CREATE TABLE users (
+    id BIGINT NOT NULL AUTO_INCREMENT,
+    login VARCHAR(255) NOT NULL,
+    password VARCHAR(255),
+    email VARCHAR(255) NOT NULL,
+    salt VARCHAR(255),
+    token VARCHAR(255),
+    activity DATETIME,
+    PRIMARY KEY (id),
+    CONSTRAINT login_UNIQUE UNIQUE (login),
+    CONSTRAINT email_UNIQUE UNIQUE (email)
+) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4;
+
+CREATE TABLE usersmuseums (
+    userid BIGINT NOT NULL,
+    museumid BIGINT NOT NULL,
+    PRIMARY KEY (userid, museumid),
+    CONSTRAINT fk_usersmuseums_user FOREIGN KEY (userid) REFERENCES users (id) ON DELETE CASCADE,
+    CONSTRAINT fk_usersmuseums_museum FOREIGN KEY (museumid) REFERENCES museums (id) ON DELETE CASCADE
+) ENGINE = InnoDB DEFAULT CHARSET = utf8mb4;
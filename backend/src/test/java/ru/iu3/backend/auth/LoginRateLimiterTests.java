@@ -0,0 +1,64 @@
+package ru.iu3.backend.auth;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Попытки входа: серия до лимита, отказ с временем ожидания и восполнение со временем.
+ * Время задаётся явно, в наносекундах, как System.nanoTime().
+ */
+class LoginRateLimiterTests {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    // 6 попыток в минуту на логин (одна в 10 с), 10 - на адрес (одна в 6 с)
+    private final LoginRateLimiter limiter = new LoginRateLimiter(new SimpleMeterRegistry(), 6, 10);
+
+    @Test
+    void burstUpToLimitThenRefill() {
+        long now = 1_000 * SECOND;
+        for (int i = 0; i < 6; i++)
+            assertThat(limiter.tryAcquire("user", "1.1.1.1", now)).isZero();
+        assertThat(limiter.tryAcquire("user", "1.1.1.1", now)).isEqualTo(10);
+        // логин без учёта регистра
+        assertThat(limiter.tryAcquire("USER", "2.2.2.2", now)).isEqualTo(10);
+
+        // за 10 с восполняется одна попытка
+        assertThat(limiter.tryAcquire("user", "3.3.3.3", now + 9 * SECOND)).isEqualTo(1);
+        assertThat(limiter.tryAcquire("user", "3.3.3.3", now + 10 * SECOND)).isZero();
+        assertThat(limiter.tryAcquire("user", "3.3.3.3", now + 10 * SECOND)).isPositive();
+        // через минуту ведро снова полное
+        for (int i = 0; i < 6; i++)
+            assertThat(limiter.tryAcquire("user", "4.4.4.4", now + 80 * SECOND)).isZero();
+    }
+
+    @Test
+    void addressIsLimitedAcrossLogins() {
+        long now = 1_000 * SECOND;
+        for (int i = 0; i < 10; i++)
+            assertThat(limiter.tryAcquire("user" + i, "1.1.1.1", now)).isZero();
+        assertThat(limiter.tryAcquire("other", "1.1.1.1", now)).isEqualTo(6);
+        // отказ по адресу не расходует попытки логина
+        for (int i = 0; i < 6; i++)
+            assertThat(limiter.tryAcquire("other", "2.2.2.2", now)).isZero();
+    }
+
+    @Test
+    void idleBucketsAreEvictedAsFull() {
+        long now = 1_000 * SECOND;
+        for (int i = 0; i < 6; i++)
+            limiter.tryAcquire("user", "1.1.1.1", now);
+        limiter.evictIdle(now + 30 * SECOND);
+        // ведро ещё не полное и остаётся: за 30 с восполнились только 3 попытки из 6
+        for (int i = 0; i < 3; i++)
+            assertThat(limiter.tryAcquire("user", "2.2.2.2", now + 30 * SECOND)).isZero();
+        assertThat(limiter.tryAcquire("user", "2.2.2.2", now + 30 * SECOND)).isPositive();
+        limiter.evictIdle(now + 120 * SECOND);
+        for (int i = 0; i < 6; i++)
+            assertThat(limiter.tryAcquire("user", "3.3.3.3", now + 120 * SECOND)).isZero();
+    }
+}
@@ -0,0 +1,65 @@
+package ru.iu3.backend.auth;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import ru.iu3.backend.models.User;
+import ru.iu3.backend.tools.Utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Проверка паролей в прежнем формате SHA-256 и их перехэширование в Argon2.
+ * Один поток - все проверки идут на нём же, как и повторная проверка после испорченной соли.
+ */
+class PasswordHasherTests {
+
+    private final PasswordHasher hasher = new PasswordHasher(new SimpleMeterRegistry(), 1, 8, 1024, 1);
+
+    @AfterEach
+    void shutdown() {
+        hasher.shutdown();
+    }
+
+    private static User legacy(String password, String salt) {
+        User u = new User();
+        u.salt = salt;
+        u.password = Utils.ComputeHash(password, salt);
+        return u;
+    }
+
+    @Test
+    void legacyPasswordIsUpgraded() {
+        User u = legacy("secret", "0a1b2c");
+        PasswordHasher.Result r = hasher.verify(u, "secret").join();
+        assertThat(r.matches).isTrue();
+        assertThat(r.upgraded).startsWith("$argon2id$");
+
+        // новый хэш проверяется уже без соли
+        u.password = r.upgraded;
+        u.salt = null;
+        assertThat(hasher.verify(u, "secret").join().matches).isTrue();
+        assertThat(hasher.verify(u, "wrong").join().matches).isFalse();
+    }
+
+    @Test
+    void wrongLegacyPasswordIsNotUpgraded() {
+        PasswordHasher.Result r = hasher.verify(legacy("secret", "0a1b2c"), "wrong").join();
+        assertThat(r.matches).isFalse();
+        assertThat(r.upgraded).isNull();
+    }
+
+    @Test
+    void malformedLegacyHashDoesNotMatch() {
+        User badSalt = legacy("secret", "0a1b2c");
+        badSalt.salt = "not hex";
+        assertThat(hasher.verify(badSalt, "secret").join().matches).isFalse();
+
+        User badHash = legacy("secret", "0a1b2c");
+        badHash.password = "xyz";
+        assertThat(hasher.verify(badHash, "secret").join().matches).isFalse();
+
+        // испорченная соль не оставила байтов пароля в digest потока
+        assertThat(hasher.verify(legacy("secret", "0a1b2c"), "secret").join().matches).isTrue();
+    }
+}
@@ -0,0 +1,84 @@
+package ru.iu3.backend.auth;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Подписанные токены: подпись, срок действия и отзыв без обращения к базе.
+ */
+class SignedTokensTests {
+
+    private static final String SECRET = Base64.getEncoder().encodeToString(new byte[32]);
+
+    private final SignedTokens tokens = new SignedTokens(SignedTokens.SIGNED, SECRET, 60);
+
+    // заменяет один символ части токена (0 - данные, 1 - подпись)
+    private static String tamper(String token, int part) {
+        int at = part == 0 ? 1 : token.indexOf('.') + 2;
+        char c = token.charAt(at);
+        return token.substring(0, at) + (c == 'A' ? 'B' : 'A') + token.substring(at + 1);
+    }
+
+    @Test
+    void issuedTokenIsVerified() {
+        SignedTokens.Claims c = tokens.verify(tokens.issue(42));
+        assertThat(c).isNotNull();
+        assertThat(c.userId).isEqualTo(42);
+    }
+
+    @Test
+    void tamperedTokenIsRejected() {
+        String token = tokens.issue(42);
+        assertThat(tokens.verify(tamper(token, 0))).isNull();
+        assertThat(tokens.verify(tamper(token, 1))).isNull();
+        assertThat(tokens.verify(token.replace(".", ""))).isNull();
+        assertThat(tokens.verify("garbage.!!!")).isNull();
+        // тот же токен, подписанный другим ключом
+        assertThat(new SignedTokens(SignedTokens.SIGNED, "", 60).verify(token)).isNull();
+    }
+
+    @Test
+    void expiredTokenIsRejected() {
+        SignedTokens instant = new SignedTokens(SignedTokens.SIGNED, SECRET, 0);
+        assertThat(instant.verify(instant.issue(42))).isNull();
+    }
+
+    @Test
+    void revokedTokenIsRejected() {
+        String token = tokens.issue(42);
+        String other = tokens.issue(42);
+        assertThat(tokens.revoke(token)).isTrue();
+        assertThat(tokens.verify(token)).isNull();
+        assertThat(tokens.revoke(token)).isFalse();
+        assertThat(tokens.verify(other)).isNotNull();
+    }
+
+    @Test
+    void revokeUserRejectsOnlyEarlierTokens() throws InterruptedException {
+        String before = tokens.issue(42);
+        String stranger = tokens.issue(7);
+        Thread.sleep(2);
+        tokens.revokeUser(42);
+        Thread.sleep(2);
+        String after = tokens.issue(42);
+
+        assertThat(tokens.verify(before)).isNull();
+        assertThat(tokens.verify(stranger)).isNotNull();
+        assertThat(tokens.verify(after)).isNotNull();
+    }
+
+    @Test
+    void evictionKeepsUnexpiredRevocations() throws InterruptedException {
+        String token = tokens.issue(42);
+        String user = tokens.issue(7);
+        Thread.sleep(2);
+        tokens.revoke(token);
+        tokens.revokeUser(7);
+        tokens.evictExpired();
+        assertThat(tokens.verify(token)).isNull();
+        assertThat(tokens.verify(user)).isNull();
+    }
+}
@@ -0,0 +1,268 @@
+package ru.iu3.backend.controllers;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import ru.iu3.backend.models.*;
+import ru.iu3.backend.repositories.*;
+
+import com.jayway.jsonpath.JsonPath;
+import ru.iu3.backend.tools.DataValidationException;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.endsWith;
+import static org.hamcrest.Matchers.startsWith;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Версии картины через HTTP: ETag из GET годится для If-Match, устаревшая версия - 409,
+ * а без If-Match сверяется поле version тела запроса, как его передаёт фронтенд. ETag CBOR и JSON различаются.
+ * Постраничный вывод по курсору: проверка limit, картины без названия и версии записей в списке;
+ * картины несуществующего музея.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+class PaintingControllerTests {
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @Autowired
+    UserRepository userRepository;
+
+    @Autowired
+    CountryRepository countryRepository;
+
+    @Autowired
+    ArtistRepository artistRepository;
+
+    @Autowired
+    MuseumRepository museumRepository;
+
+    @Autowired
+    PaintingRepository paintingRepository;
+
+    long id;
+
+    @BeforeEach
+    void setUp() {
+        if (userRepository.findByLogin("editor").isEmpty()) {
+            User u = new User();
+            u.login = "editor";
+            u.email = "editor@example.com";
+            u.password = "p";
+            u.token = "editor";
+            u.activity = LocalDateTime.now();
+            userRepository.save(u);
+        }
+        Country country = countryRepository.findByName("Versions country").orElseGet(() -> {
+            Country c = new Country();
+            c.name = "Versions country";
+            return countryRepository.save(c);
+        });
+        Artist artist = artistRepository.findByName("Versions artist").orElseGet(() -> {
+            Artist a = new Artist();
+            a.name = "Versions artist";
+            a.age = "40";
+            a.country = country;
+            return artistRepository.save(a);
+        });
+        Museum museum = museumRepository.findByName("Versions museum").orElseGet(() -> {
+            Museum m = new Museum();
+            m.name = "Versions museum";
+            return museumRepository.save(m);
+        });
+        Painting p = new Painting();
+        p.name = "Versions painting " + System.nanoTime();
+        p.year = 1900L;
+        p.artistid = artist;
+        p.museumid = museum;
+        id = paintingRepository.save(p).id;
+    }
+
+    private MockHttpServletRequestBuilder auth(MockHttpServletRequestBuilder request) {
+        return request.header("Authorization", "Bearer editor");
+    }
+
+    private ResultActions getPainting(String ifNoneMatch) throws Exception {
+        MockHttpServletRequestBuilder request = auth(get("/api/v1/paintings/" + id));
+        if (ifNoneMatch != null)
+            request.header("If-None-Match", ifNoneMatch);
+        MvcResult started = mockMvc.perform(request).andReturn();
+        return mockMvc.perform(asyncDispatch(started));
+    }
+
+    private ResultActions getPainting(String accept, String ifNoneMatch) throws Exception {
+        MockHttpServletRequestBuilder request = auth(get("/api/v1/paintings/" + id)).header("Accept", accept);
+        if (ifNoneMatch != null)
+            request.header("If-None-Match", ifNoneMatch);
+        MvcResult started = mockMvc.perform(request).andReturn();
+        return mockMvc.perform(asyncDispatch(started));
+    }
+
+    private String body(String name, Long version) {
+        return "{\"name\":\"" + name + "\",\"year\":1901,\"artistid\":{\"name\":\"Versions artist\"},"
+                + "\"museumid\":{\"name\":\"Versions museum\"}"
+                + (version == null ? "" : ",\"version\":" + version) + "}";
+    }
+
+    private ResultActions putPainting(String ifMatch, String body) throws Exception {
+        MockHttpServletRequestBuilder request = auth(put("/api/v1/paintings/" + id))
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(body);
+        if (ifMatch != null)
+            request.header("If-Match", ifMatch);
+        return mockMvc.perform(request);
+    }
+
+    @Test
+    void etagFromGetIsAcceptedByPut() throws Exception {
+        String etag = getPainting(null).andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+        assertThat(etag).startsWith("W/\"0-");
+        getPainting(etag).andExpect(status().isNotModified());
+
+        String updated = putPainting(etag, body("Renamed " + id, null))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.version").value(1))
+                .andReturn().getResponse().getHeader("ETag");
+        assertThat(updated).startsWith("W/\"1-");
+        getPainting(updated).andExpect(status().isNotModified());
+
+        // ETag до изменения устарел
+        putPainting(etag, body("Lost " + id, null)).andExpect(status().isConflict());
+        putPainting("\"not a version\"", body("Lost " + id, null)).andExpect(status().isBadRequest());
+        assertThat(paintingRepository.findById(id).orElseThrow().name).isEqualTo("Renamed " + id);
+    }
+
+    @Test
+    void etagDependsOnFormat() throws Exception {
+        String json = getPainting(null).andExpect(status().isOk()).andReturn().getResponse().getHeader("ETag");
+        String cbor = getPainting("application/cbor", null).andExpect(status().isOk())
+                .andExpect(header().string("Content-Type", startsWith("application/cbor")))
+                .andReturn().getResponse().getHeader("ETag");
+        assertThat(cbor).isNotEqualTo(json).endsWith("-cbor\"");
+
+        // ETag ответа в JSON не подтверждает закэшированный CBOR, и наоборот
+        getPainting("application/cbor", json).andExpect(status().isOk());
+        getPainting("application/cbor", cbor).andExpect(status().isNotModified());
+        getPainting(MediaType.APPLICATION_JSON_VALUE, cbor).andExpect(status().isOk());
+
+        // ETag из CBOR-ответа годится и для If-Match: в нём та же версия
+        putPainting(cbor, body("Cbor " + id, null)).andExpect(status().isOk());
+        MvcResult started = mockMvc.perform(auth(get("/api/v1/paintings")).param("after", "").param("limit", "10")
+                .header("Accept", "application/x-jackson-smile")).andReturn();
+        mockMvc.perform(asyncDispatch(started)).andExpect(header().string("ETag", endsWith("-smile\"")));
+    }
+
+    @Test
+    void putWithoutIfMatchChecksBodyVersion() throws Exception {
+        putPainting(null, body("First " + id, 0L)).andExpect(status().isOk());
+        putPainting(null, body("Second " + id, 0L)).andExpect(status().isConflict());
+        // версии нет ни в заголовке, ни в теле - запись перезаписывается, как раньше
+        putPainting(null, body("Third " + id, null)).andExpect(status().isOk());
+        assertThat(paintingRepository.findById(id).orElseThrow().version).isEqualTo(2);
+    }
+
+    @Test
+    void listsCarryVersions() throws Exception {
+        putPainting(null, body("Listed " + id, 0L)).andExpect(status().isOk());
+        MvcResult started = mockMvc.perform(auth(get("/api/v1/paintings"))
+                .param("after", "").param("limit", "1000")).andReturn();
+        String json = mockMvc.perform(asyncDispatch(started)).andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        String item = "$.content[?(@.id == " + id + ")]";
+        assertThat(JsonPath.<List<Number>>read(json, item + ".version")).containsExactly(1);
+        assertThat(JsonPath.<List<Number>>read(json, item + ".artistid.version")).hasSize(1);
+        assertThat(JsonPath.<List<Number>>read(json, item + ".artistid.country.version")).hasSize(1);
+        assertThat(JsonPath.<List<Number>>read(json, item + ".museumid.version")).hasSize(1);
+        // версия из списка годится для следующего изменения
+        putPainting(null, body("Listed again " + id, 1L)).andExpect(status().isOk());
+    }
+
+    @Test
+    void patchReportsConflictNotFoundAndNewVersion() throws Exception {
+        String etag = mockMvc.perform(auth(patch("/api/v1/paintings/" + id))
+                        .header("If-Match", "\"0\"")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"year\":1902}"))
+                .andExpect(status().isNoContent())
+                .andExpect(header().string("ETag", startsWith("W/\"1-")))
+                .andReturn().getResponse().getHeader("ETag");
+        getPainting(etag).andExpect(status().isNotModified());
+
+        mockMvc.perform(auth(patch("/api/v1/paintings/" + id))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"year\":1903,\"version\":0}"))
+                .andExpect(status().isConflict());
+        // записи нет - прежняя ошибка "не найдена", а не 409
+        mockMvc.perform(auth(patch("/api/v1/paintings/" + Long.MAX_VALUE))
+                        .header("If-Match", "\"0\"")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"year\":1903}"))
+                .andExpect(status().isInternalServerError());
+        assertThat(paintingRepository.findById(id).orElseThrow().year).isEqualTo(1902L);
+    }
+
+    @Test
+    void keysetLimitIsValidated() throws Exception {
+        for (String limit : new String[] { "0", "-1" })
+            mockMvc.perform(auth(get("/api/v1/paintings")).param("after", "").param("limit", limit))
+                    .andExpect(status().isInternalServerError())
+                    .andExpect(r -> assertThat(r.getResolvedException()).isInstanceOf(DataValidationException.class));
+    }
+
+    @Test
+    void keysetPagesIncludeUnnamedPaintings() throws Exception {
+        List<Long> unnamed = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+            unnamed.add(paintingRepository.save(new Painting()).id);
+
+        List<Long> seen = new ArrayList<>();
+        String after = "";
+        do {
+            MvcResult started = mockMvc.perform(auth(get("/api/v1/paintings"))
+                    .param("after", after).param("limit", "2")).andReturn();
+            String json = mockMvc.perform(asyncDispatch(started)).andExpect(status().isOk())
+                    .andReturn().getResponse().getContentAsString();
+            seen.addAll(JsonPath.<List<Number>>read(json, "$.content[*].id").stream().map(Number::longValue).collect(Collectors.toList()));
+            after = JsonPath.read(json, "$.next");
+        } while (after != null);
+
+        assertThat(seen).containsAll(unnamed).doesNotHaveDuplicates().hasSize((int) paintingRepository.count());
+        paintingRepository.deleteAllById(unnamed);
+    }
+
+    @Test
+    void museumPaintingsRequireExistingMuseum() throws Exception {
+        long museum = museumRepository.findByName("Versions museum").orElseThrow().id;
+        MvcResult started = mockMvc.perform(auth(get("/api/v1/museums/" + museum + "/paintings"))).andReturn();
+        mockMvc.perform(asyncDispatch(started)).andExpect(status().isOk());
+
+        started = mockMvc.perform(auth(get("/api/v1/museums/" + Long.MAX_VALUE + "/paintings")).param("after", ""))
+                .andReturn();
+        assertThat(started.getAsyncResult()).isInstanceOf(DataValidationException.class);
+        mockMvc.perform(auth(get("/api/v1/museums/" + museum + "/paintings")).param("limit", "0"))
+                .andExpect(r -> assertThat(r.getResolvedException()).isInstanceOf(DataValidationException.class));
+    }
+}
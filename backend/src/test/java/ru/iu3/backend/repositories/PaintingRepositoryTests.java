@@ -0,0 +1,175 @@
+package ru.iu3.backend.repositories;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.transaction.TestTransaction;
+import ru.iu3.backend.models.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@DataJpaTest
+@ActiveProfiles("test")
+class PaintingRepositoryTests {
+
+    @Autowired
+    TestEntityManager em;
+
+    @Autowired
+    PaintingRepository paintingRepository;
+
+    @Autowired
+    ArtistRepository artistRepository;
+
+    @Autowired
+    MuseumRepository museumRepository;
+
+    @Autowired
+    CountryRepository countryRepository;
+
+    Statistics statistics;
+
+    @BeforeEach
+    void setUp() {
+        Country[] countries = new Country[3];
+        for (int i = 0; i < countries.length; i++) {
+            countries[i] = new Country();
+            countries[i].name = "country " + i;
+            em.persist(countries[i]);
+        }
+        Artist[] artists = new Artist[6];
+        for (int i = 0; i < artists.length; i++) {
+            artists[i] = new Artist();
+            artists[i].name = "artist " + i;
+            artists[i].age = String.valueOf(30 + i);
+            artists[i].country = countries[i % countries.length];
+            em.persist(artists[i]);
+        }
+        Museum[] museums = new Museum[4];
+        for (int i = 0; i < museums.length; i++) {
+            museums[i] = new Museum();
+            museums[i].name = "museum " + i;
+            museums[i].location = "city " + i;
+            em.persist(museums[i]);
+        }
+        for (int i = 0; i < 40; i++) {
+            Painting p = new Painting();
+            p.name = String.format("painting %02d", i);
+            p.year = 1800L + i;
+            p.artistid = artists[i % artists.length];
+            p.museumid = museums[i % museums.length];
+            em.persist(p);
+        }
+        em.flush();
+        em.clear();
+        statistics = em.getEntityManager().getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+    }
+
+    @Test
+    void paintingPageLoadsRelationsInConstantNumberOfStatements() {
+        Page<PaintingView> page = paintingRepository.findAllViews(PageRequest.of(0, 25, Sort.by("name")));
+
+        // выборка страницы и подсчёт общего количества
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(2);
+        assertThat(page.getTotalElements()).isEqualTo(40);
+        assertThat(page.getContent()).hasSize(25);
+        PaintingView first = page.getContent().get(0);
+        assertThat(first.name).isEqualTo("painting 00");
+        assertThat(first.artistid.name).isEqualTo("artist 0");
+        assertThat(first.artistid.country.name).isEqualTo("country 0");
+        assertThat(first.museumid.location).isEqualTo("city 0");
+    }
+
+    @Test
+    void paintingPageOfEntitiesFansOut() {
+        paintingRepository.findAll(PageRequest.of(0, 25, Sort.by("name")));
+
+        assertThat(statistics.getPrepareStatementCount()).isGreaterThan(2);
+    }
+
+    @Test
+    void artistPageLoadsCountriesInConstantNumberOfStatements() {
+        Page<ArtistView> page = artistRepository.findAllViews(PageRequest.of(0, 5, Sort.by("name")));
+
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(2);
+        assertThat(page.getContent()).hasSize(5);
+        assertThat(page.getContent().get(4).country.name).isEqualTo("country 1");
+    }
+
+    @Test
+    void paintingKeysetPageIsSingleStatement() {
+        paintingRepository.findPageAfter("painting 10", Long.MAX_VALUE, PageRequest.of(0, 10));
+
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+    }
+
+    @Test
+    void museumPaintingsArePagedWithoutLoadingCollection() {
+        long museumId = museumRepository.findByName("museum 0").get().id;
+        statistics.clear();
+
+        Page<PaintingView> page = paintingRepository.findByMuseum(museumId,
+                PageRequest.of(1, 4, Sort.by(Sort.Direction.DESC, "year").and(Sort.by("id"))));
+
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(2);
+        assertThat(statistics.getCollectionLoadCount()).isZero();
+        assertThat(page.getTotalElements()).isEqualTo(10);
+        assertThat(page.getContent()).extracting(p -> p.year).containsExactly(1820L, 1816L, 1812L, 1808L);
+    }
+
+    @Test
+    void staleUpdateIsRejected() {
+        Painting stale = paintingRepository.findAll(PageRequest.of(0, 1)).getContent().get(0);
+        em.detach(stale);
+        Painting fresh = paintingRepository.findById(stale.id).orElseThrow();
+        fresh.year = 1700L;
+        em.flush();
+        em.clear();
+        assertThat(paintingRepository.findById(stale.id).orElseThrow().version).isEqualTo(stale.version + 1);
+
+        stale.name = "stale";
+        assertThatThrownBy(() -> paintingRepository.saveAndFlush(stale))
+                .isInstanceOf(ObjectOptimisticLockingFailureException.class);
+    }
+
+    @Test
+    void catalogReadsAreServedFromSecondLevelCache() {
+        // в кэш второго уровня попадают только зафиксированные данные; каждый вызов репозитория ниже -
+        // отдельная транзакция и отдельная сессия
+        TestTransaction.flagForCommit();
+        TestTransaction.end();
+        try {
+            long id = paintingRepository.findPageAfter("painting 00", 0L, PageRequest.of(0, 1)).get(0).id;
+            paintingRepository.findById(id);
+            museumRepository.findByName("museum 1");
+            statistics.clear();
+
+            Painting p = paintingRepository.findById(id).get();
+            Museum m = museumRepository.findByName("museum 1").get();
+
+            assertThat(statistics.getPrepareStatementCount()).isZero();
+            assertThat(p.artistid.country.name).isEqualTo("country 0");
+            assertThat(m.location).isEqualTo("city 1");
+            // картина, её художник, музей и страна художника, затем музей из результата findByName
+            assertThat(statistics.getSecondLevelCacheHitCount()).isEqualTo(5);
+            assertThat(statistics.getQueryCacheHitCount()).isEqualTo(1);
+        }
+        finally {
+            paintingRepository.deleteAll();
+            artistRepository.deleteAll();
+            museumRepository.deleteAll();
+            countryRepository.deleteAll();
+        }
+    }
+}
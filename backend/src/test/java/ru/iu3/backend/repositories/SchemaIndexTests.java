@@ -0,0 +1,100 @@
+package ru.iu3.backend.repositories;
+
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.api.MigrationVersion;
+import org.flywaydb.core.api.configuration.FluentConfiguration;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.context.ActiveProfiles;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Планы запросов H2 на схеме, созданной миграциями Flyway. Запросы повторяют SQL, который Hibernate
+ * строит для методов репозиториев; в плане H2 после каждой таблицы указан выбранный индекс.
+ * Индексы по имени проверяются на обновлённой базе: в ней нет уникальных ключей name из V1,
+ * и всё нужное должны создать общие миграции.
+ */
+@DataJpaTest
+@ActiveProfiles("test")
+class SchemaIndexTests {
+
+    // Картина с художником, страной и музеем - как PaintingRepository.VIEW
+    private static final String PAINTING_VIEW = "SELECT p.id, p.name, a.name, c.name, m.name FROM paintings p "
+            + "LEFT JOIN artists a ON p.artistid = a.id LEFT JOIN countries c ON a.country = c.id "
+            + "LEFT JOIN museums m ON p.museumid = m.id ";
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    private String plan(String sql) {
+        return plan(jdbcTemplate, sql);
+    }
+
+    private static String plan(JdbcTemplate jdbc, String sql) {
+        return jdbc.queryForObject("EXPLAIN " + sql, String.class).replaceAll("\\s+", " ").toUpperCase();
+    }
+
+    /**
+     * База, существовавшая до миграций: схема V1 без уникальных ключей по name, затем остальные миграции
+     */
+    private static JdbcTemplate upgraded() {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+                "jdbc:h2:mem:upgraded-" + System.nanoTime() + ";MODE=MySQL;DB_CLOSE_DELAY=-1", "sa", "");
+        FluentConfiguration flyway = Flyway.configure().dataSource(dataSource)
+                .locations("classpath:db/migration/common", "classpath:db/migration/h2");
+        flyway.target("1").load().migrate();
+        JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+        jdbc.execute("ALTER TABLE museums DROP CONSTRAINT museums_name_UNIQUE");
+        jdbc.execute("ALTER TABLE paintings DROP CONSTRAINT paintings_name_UNIQUE");
+        flyway.target(MigrationVersion.LATEST).load().migrate();
+        return jdbc;
+    }
+
+    @Test
+    void tokenLookupUsesIndex() {
+        assertThat(plan("SELECT id FROM users WHERE token = 'abc'"))
+                .contains("USERS_TOKEN: TOKEN = 'ABC'");
+    }
+
+    @Test
+    void museumByNameUsesIndex() {
+        assertThat(plan(upgraded(), "SELECT id FROM museums WHERE name = 'Louvre'"))
+                .contains("MUSEUMS_NAME: NAME = 'LOUVRE'");
+    }
+
+    @Test
+    void museumPaintingsPageUsesMuseumNameIndex() {
+        assertThat(plan(PAINTING_VIEW + "WHERE p.museumid = 3 ORDER BY p.name, p.id LIMIT 25"))
+                .contains("PAINTINGS_MUSEUM_NAME: MUSEUMID = 3");
+        assertThat(plan(PAINTING_VIEW + "WHERE p.museumid = 3 AND p.name >= 'b' AND (p.name > 'b' OR p.id > 7) "
+                + "ORDER BY p.name, p.id LIMIT 26"))
+                .contains("PAINTINGS_MUSEUM_NAME: MUSEUMID = 3 AND NAME >= 'B'");
+    }
+
+    @Test
+    void countryArtistsPageUsesCountryNameIndex() {
+        assertThat(plan("SELECT a.id, c.name FROM artists a LEFT JOIN countries c ON a.country = c.id "
+                + "WHERE a.country = 3 AND a.name >= 'b' AND (a.name > 'b' OR a.id > 7) ORDER BY a.name, a.id LIMIT 26"))
+                .contains("ARTISTS_COUNTRY_NAME: COUNTRY = 3 AND NAME >= 'B'");
+    }
+
+    @Test
+    void keysetPageReadsNameRange() {
+        assertThat(plan(upgraded(), PAINTING_VIEW + "WHERE p.name >= 'b' AND (p.name > 'b' OR p.id > 7) ORDER BY p.name, p.id LIMIT 26"))
+                .contains("PAINTINGS_NAME: NAME >= 'B'");
+        assertThat(plan("SELECT id FROM users WHERE login >= 'b' AND (login > 'b' OR id > 7) ORDER BY login, id LIMIT 26"))
+                .contains("USERS_LOGIN_UNIQUE")
+                .contains("LOGIN >= 'B'");
+    }
+
+    @Test
+    void clearingArtistReferencesDoesNotScanPaintings() {
+        assertThat(plan("UPDATE paintings SET artistid = NULL WHERE artistid IN (1, 2)"))
+                .contains("ARTISTID IN(1, 2)")
+                .doesNotContain("TABLESCAN");
+    }
+}
@@ -0,0 +1,178 @@
+package ru.iu3.backend.tools;
+
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.MvcResult;
+import ru.iu3.backend.models.User;
+import ru.iu3.backend.repositories.UserRepository;
+
+import java.time.LocalDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Маршрутизация чтения на двух встроенных базах H2: основной (primary) и реплике (replica).
+ * Данные в них нарочно различаются, по названиям стран видно, откуда прочитан список.
+ * Пользователи есть только в основной базе - токен проверяется в ней, а не в реплике.
+ * После записи в основную базу читают только запросы к изменённым таблицам.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=" + ReadReplicasTests.PRIMARY,
+        "private.replicas.urls=" + ReadReplicasTests.REPLICA + ";IFEXISTS=TRUE",
+        "private.replicas.pool-size=2",
+        "private.replicas.connection-timeout=500",
+        "private.replicas.health-interval=600000",
+        "private.replicas.read-your-writes-ms=" + ReadReplicasTests.READ_YOUR_WRITES
+})
+@AutoConfigureMockMvc
+@ActiveProfiles("test")
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class ReadReplicasTests {
+
+    static final String PRIMARY = "jdbc:h2:mem:primary;MODE=MySQL;DB_CLOSE_DELAY=-1";
+
+    static final String REPLICA = "jdbc:h2:mem:replica;MODE=MySQL;DB_CLOSE_DELAY=-1";
+
+    static final long READ_YOUR_WRITES = 1500;
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    UserRepository userRepository;
+
+    @Autowired
+    ReadReplicas readReplicas;
+
+    @Autowired
+    TableVersions tableVersions;
+
+    // реплика создаётся до контекста: без IFEXISTS, с той же схемой, что у основной базы
+    @BeforeAll
+    static void createReplica() {
+        migrate(REPLICA);
+    }
+
+    private static JdbcTemplate migrate(String url) {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(url, "sa", "");
+        Flyway.configure().dataSource(dataSource)
+                .locations("classpath:db/migration/common", "classpath:db/migration/h2")
+                .load().migrate();
+        JdbcTemplate replica = new JdbcTemplate(dataSource);
+        replica.update("MERGE INTO countries (id, name) KEY (id) VALUES (1, 'Replica 1'), (2, 'Replica 2')");
+        replica.update("MERGE INTO paintings (id, name) KEY (id) VALUES (1, 'Replica painting')");
+        return replica;
+    }
+
+    @BeforeEach
+    void fillPrimary() {
+        jdbcTemplate.update("MERGE INTO countries (id, name) KEY (id) VALUES (1, 'Primary 1'), (2, 'Primary 2')");
+        jdbcTemplate.update("MERGE INTO paintings (id, name) KEY (id) VALUES (1, 'Primary painting')");
+        for (String login : new String[] { "reader", "writer" }) {
+            if (userRepository.findByLogin(login).isPresent())
+                continue;
+            User u = new User();
+            u.login = login;
+            u.email = login + "@example.com";
+            u.password = "p";
+            u.token = login;
+            u.activity = LocalDateTime.now();
+            userRepository.save(u);
+        }
+    }
+
+    private ResultActions countries(String token) throws Exception {
+        return read("/api/v1/countries?page=0&limit=10", token);
+    }
+
+    private ResultActions read(String url, String token) throws Exception {
+        MvcResult started = mockMvc.perform(get(url).header("Authorization", "Bearer " + token)).andReturn();
+        return mockMvc.perform(asyncDispatch(started)).andExpect(status().isOk());
+    }
+
+    @Test
+    @Order(1)
+    void readOnlyRequestsGoToReplica() throws Exception {
+        countries("reader").andExpect(jsonPath("$.content[*].name", contains("Replica 1", "Replica 2")));
+        assertThat(readReplicas.status().get(0)).containsEntry("healthy", true);
+    }
+
+    @Test
+    @Order(2)
+    void readsOfChangedTableGoToPrimary() throws Exception {
+        mockMvc.perform(put("/api/v1/countries/2")
+                        .header("Authorization", "Bearer writer")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"name\":\"Updated 2\"}"))
+                .andExpect(status().isOk());
+        assertThat(jdbcTemplate.queryForObject("SELECT name FROM countries WHERE id = 2", String.class))
+                .isEqualTo("Updated 2");
+
+        // реплика ещё могла не получить изменение - не только автор, но и все остальные читают из основной базы,
+        // иначе устаревший список ушёл бы с новым ETag
+        countries("writer").andExpect(jsonPath("$.content[*].name", contains("Primary 1", "Updated 2")));
+        countries("reader").andExpect(jsonPath("$.content[*].name", contains("Primary 1", "Updated 2")));
+
+        Thread.sleep(READ_YOUR_WRITES + 100);
+        countries("reader").andExpect(jsonPath("$.content[*].name", contains("Replica 1", "Replica 2")));
+    }
+
+    @Test
+    @Order(3)
+    void writesToOtherTablesKeepReadsOnReplica() throws Exception {
+        // вход и выход меняют только users - чтение каталога остаётся на реплике
+        tableVersions.bump(TableVersions.USERS);
+        read("/api/v1/paintings?page=0&limit=10", "reader")
+                .andExpect(jsonPath("$.content[*].name", contains("Replica painting")));
+        countries("reader").andExpect(jsonPath("$.content[*].name", contains("Replica 1", "Replica 2")));
+
+        // художники входят в ответ о картинах
+        tableVersions.bump(TableVersions.ARTISTS);
+        read("/api/v1/paintings?page=0&limit=10", "reader")
+                .andExpect(jsonPath("$.content[*].name", contains("Primary painting")));
+        countries("reader").andExpect(jsonPath("$.content[*].name", contains("Replica 1", "Replica 2")));
+        Thread.sleep(READ_YOUR_WRITES + 100);
+    }
+
+    @Test
+    @Order(4)
+    void unavailableReplicaFallsBackToPrimary() throws Exception {
+        JdbcTemplate replica = new JdbcTemplate(new DriverManagerDataSource(REPLICA, "sa", ""));
+        replica.execute("SHUTDOWN");
+        // соединения, проверенные меньше 500 мс назад, Hikari отдаёт без проверки
+        Thread.sleep(600);
+
+        countries("reader").andExpect(jsonPath("$.content[*].name", contains("Primary 1", "Primary 2")));
+        assertThat(readReplicas.status().get(0)).containsEntry("healthy", false);
+        countries("reader").andExpect(jsonPath("$.content[*].name", contains("Primary 1", "Primary 2")));
+
+        // реплика вернулась - после проверки чтение снова идёт в неё
+        migrate(REPLICA);
+        readReplicas.checkHealth();
+        assertThat(readReplicas.status().get(0)).containsEntry("healthy", true);
+        countries("reader").andExpect(jsonPath("$.content[*].name", contains("Replica 1", "Replica 2")));
+    }
+}